@@ -22,6 +22,7 @@ import com.github.markusbernhardt.selenium2library.keywords.SelectElement;
 import com.github.markusbernhardt.selenium2library.keywords.TableElement;
 import com.github.markusbernhardt.selenium2library.keywords.Waiting;
 import com.github.markusbernhardt.selenium2library.utils.Javadoc2Libdoc;
+import com.github.markusbernhardt.selenium2library.utils.RobotLogger;
 
 /**
  * Selenium2Library is a web testing library for the Robot Framework and was
@@ -147,6 +148,25 @@ import com.github.markusbernhardt.selenium2library.utils.Javadoc2Libdoc;
  * </tr>
  * </table>
  * <br>
+ * <b>Chained locators</b><br>
+ * Locators can be chained with <b>&gt;&gt;</b> surrounded by spaces. Every step
+ * of the chain only searches inside the elements found by the previous step.
+ * Every step after the first has to start with its strategy, e.g.
+ * <b>css=</b>, or <b>default=</b> for the default strategy. A
+ * <b>&gt;&gt;</b> not followed by a strategy is part of the step, so XPath
+ * and CSS expressions containing it keep working. XPath expressions used
+ * after the first step have to be relative, e.g. start with <b>.//</b>. The
+ * dom, jquery, sizzle and custom strategies can only be used in the first
+ * step.<br>
+ * <br>
+ * Example:
+ * <table border="1" cellspacing="0" summary="">
+ * <tr>
+ * <td>Click Element</td>
+ * <td>css=#grid &gt;&gt; xpath=.//tr[3] &gt;&gt; link=Edit</td>
+ * </tr>
+ * </table>
+ * <br>
  * <b>Locating tables</b><br>
  * Table related keywords, such as `Table Should Contain`, work differently. By
  * default, when a table locator value is provided, it will search for a table
@@ -496,7 +516,12 @@ public class Selenium2Library extends AnnotationLibrary {
 
 	@Override
 	public Object runKeyword(String keywordName, Object[] args) {
-		return super.runKeyword(keywordName, toStrings(args));
+		RobotLogger.markKeywordThread();
+		try {
+			return super.runKeyword(keywordName, toStrings(args));
+		} finally {
+			RobotLogger.flush();
+		}
 	}
 
 	@Override
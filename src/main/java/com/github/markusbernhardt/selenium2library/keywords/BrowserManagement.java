@@ -13,8 +13,16 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -51,9 +59,11 @@ import com.github.markusbernhardt.selenium2library.Selenium2LibraryFatalExceptio
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
 import com.github.markusbernhardt.selenium2library.locators.ElementFinder;
 import com.github.markusbernhardt.selenium2library.locators.WindowManager;
+import com.github.markusbernhardt.selenium2library.utils.Python;
 import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 import com.github.markusbernhardt.selenium2library.utils.WebDriverCache;
 import com.github.markusbernhardt.selenium2library.utils.WebDriverCache.SessionIdAliasWebDriverTuple;
+import com.github.markusbernhardt.selenium2library.utils.WebDriverPool;
 import com.opera.core.systems.OperaDriver;
 
 @SuppressWarnings("deprecation")
@@ -94,6 +104,24 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	@Autowired
 	protected Element element;
 
+	/**
+	 * Instantiated Waiting keyword bean
+	 */
+	@Autowired
+	protected Waiting waiting;
+
+	/**
+	 * Instantiated Screenshot keyword bean
+	 */
+	@Autowired
+	protected Screenshot screenshot;
+
+	/**
+	 * Instantiated TableElement keyword bean
+	 */
+	@Autowired
+	protected TableElement tableElement;
+
 	// ##############################
 	// Getter / Setter
 	// ##############################
@@ -106,6 +134,10 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 		return webDriverCache.getCurrent();
 	}
 
+	public String getCurrentSessionId() {
+		return webDriverCache.getCurrentSessionId();
+	}
+
 	public double getTimeout() {
 		return timeout;
 	}
@@ -127,6 +159,9 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	 * or null. Optionally a delimiter can be given to split the value of the
 	 * locator in multiple arguments when executing the JavaScript function. <br>
 	 * <br>
+	 * The function is sent to the browser only once per page. It is stored as
+	 * a function of the window there and later lookups just call it by name.<br>
+	 * <br>
 	 * Example:
 	 * <table border="1" cellspacing="0" summary="">
 	 * <tr>
@@ -180,8 +215,10 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	 */
 	@RobotKeyword
 	public void closeBrowser() {
-		if (webDriverCache.getCurrentSessionId() != null) {
-			logging.debug(String.format("Closing browser with session id %s", webDriverCache.getCurrentSessionId()));
+		String sessionId = webDriverCache.getCurrentSessionId();
+		if (sessionId != null) {
+			logging.debug(String.format("Closing browser with session id %s", sessionId));
+			dropBrowserCaches(sessionId);
 			webDriverCache.close();
 		}
 	}
@@ -390,9 +427,10 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 				logging.info(String.format("Opening browser '%s' to base url '%s'", browserName, url));
 			}
 
-			WebDriver webDriver = createWebDriver(browserName, desiredCapabilities, remoteUrl, browserOptions);
-			webDriver.get(url);
-			String sessionId = webDriverCache.register(webDriver, alias);
+			SessionIdAliasWebDriverTuple started = startWebDriver(url, browserName, remoteUrl, desiredCapabilities,
+					browserOptions);
+			String sessionId = webDriverCache.register(started.webDriver, alias, started.poolKey);
+			invalidatePageCaches();
 			logging.debug(String.format("Opened browser with session id %s", sessionId));
 			return sessionId;
 		} catch (Throwable t) {
@@ -407,6 +445,152 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 		}
 	}
 
+	@RobotKeywordOverload
+	public List<String> openBrowsers(String browserSpecs) throws Throwable {
+		return openBrowsers(browserSpecs, "4");
+	}
+
+	/**
+	 * Opens several new browser instances at once.<br>
+	 * <br>
+	 * The <b>browserSpecs</b> are a JSON array of objects. Every object
+	 * describes one browser with the keys <b>url</b>, <b>browserName</b>,
+	 * <b>alias</b>, <b>remoteUrl</b>, <b>desiredCapabilities</b> and
+	 * <b>browserOptions</b>, which have the same meaning and defaults as the
+	 * arguments of `Open Browser`. The desired capabilities and browser
+	 * options can be given as JSON objects or strings.<br>
+	 * <br>
+	 * Up to <b>maxParallel</b> browsers are started and open their URL at the
+	 * same time. The started browsers are registered in the order of the
+	 * specs, so the returned indexes are stable. The last registered browser
+	 * is the current browser.<br>
+	 * <br>
+	 * If some browsers fail to start, the others are closed again or returned
+	 * to the pool, and the keyword fails with the aliases and errors of the
+	 * failed ones. No browser is registered in that case.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>@{ids}=</td>
+	 * <td>Open Browsers</td>
+	 * <td>[{"url":"http://shop", "alias":"user"},
+	 * {"url":"http://shop/admin", "browserName":"chrome", "alias":"admin"}]</td>
+	 * </tr>
+	 * <tr>
+	 * <td>Switch Browser</td>
+	 * <td>admin</td>
+	 * <td></td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param browserSpecs
+	 *            The JSON array of browser specs.
+	 * @param maxParallel
+	 *            Default=4. Optional number of browsers started at the same
+	 *            time. Must be at least 1.
+	 * @return The indexes of the newly created browser instances.
+	 * @throws Throwable - if anything goes wrong
+	 * 
+	 * @see BrowserManagement#openBrowser
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "browserSpecs", "maxParallel=4" })
+	public List<String> openBrowsers(String browserSpecs, String maxParallel) throws Throwable {
+		int parallel;
+		try {
+			parallel = Integer.parseInt(maxParallel);
+		} catch (NumberFormatException e) {
+			parallel = 0;
+		}
+		if (parallel < 1) {
+			throw new Selenium2LibraryNonFatalException(String.format("Invalid max parallel: %s", maxParallel));
+		}
+		Object parsed = JSONValue.parse(browserSpecs);
+		if (!(parsed instanceof JSONArray)) {
+			throw new Selenium2LibraryNonFatalException(String.format("Invalid browser specs: %s", browserSpecs));
+		}
+		List<Callable<SessionIdAliasWebDriverTuple>> starts = new ArrayList<Callable<SessionIdAliasWebDriverTuple>>();
+		final List<String> aliases = new ArrayList<String>();
+		final List<SessionIdAliasWebDriverTuple> startedTuples = new ArrayList<SessionIdAliasWebDriverTuple>();
+		final AtomicBoolean abandoned = new AtomicBoolean();
+		for (Object spec : (JSONArray) parsed) {
+			if (!(spec instanceof JSONObject)) {
+				throw new Selenium2LibraryNonFatalException(String.format("Invalid browser spec: %s", spec));
+			}
+			JSONObject jsonObject = (JSONObject) spec;
+			final String url = getSpecValue(jsonObject, "url", null);
+			if (url == null) {
+				throw new Selenium2LibraryNonFatalException(String.format("Browser spec without url: %s", spec));
+			}
+			final String browserName = getSpecValue(jsonObject, "browserName", "firefox");
+			final String remoteUrl = getSpecValue(jsonObject, "remoteUrl", null);
+			final String desiredCapabilities = getSpecValue(jsonObject, "desiredCapabilities", null);
+			final String browserOptions = getSpecValue(jsonObject, "browserOptions", null);
+			aliases.add(getSpecValue(jsonObject, "alias", null));
+			logging.info(String.format("Opening browser '%s' to base url '%s'%s", browserName, url,
+					remoteUrl != null ? String.format(" through remote server at '%s'", remoteUrl) : ""));
+			starts.add(new Callable<SessionIdAliasWebDriverTuple>() {
+
+				@Override
+				public SessionIdAliasWebDriverTuple call() throws Exception {
+					SessionIdAliasWebDriverTuple started = startWebDriver(url, browserName, remoteUrl,
+							desiredCapabilities, browserOptions);
+					synchronized (startedTuples) {
+						if (!abandoned.get()) {
+							startedTuples.add(started);
+							return started;
+						}
+					}
+					// Started after the keyword gave up, nobody else will
+					// close it
+					webDriverCache.quit(started);
+					return started;
+				}
+			});
+		}
+		if (starts.size() == 0) {
+			return new ArrayList<String>();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(starts.size(), parallel));
+		List<Future<SessionIdAliasWebDriverTuple>> futures;
+		try {
+			futures = executor.invokeAll(starts);
+		} catch (InterruptedException e) {
+			quitStartedWebDrivers(startedTuples, abandoned);
+			throw e;
+		} finally {
+			executor.shutdown();
+		}
+
+		List<SessionIdAliasWebDriverTuple> started = new ArrayList<SessionIdAliasWebDriverTuple>();
+		List<String> failures = new ArrayList<String>();
+		for (int i = 0; i < futures.size(); i++) {
+			String alias = aliases.get(i);
+			try {
+				started.add(futures.get(i).get());
+			} catch (ExecutionException e) {
+				failures.add(String.format("%s: %s", alias != null ? alias : "#" + (i + 1), e.getCause()));
+			}
+		}
+		if (failures.size() != 0) {
+			quitStartedWebDrivers(startedTuples, abandoned);
+			throw new Selenium2LibraryFatalException(String.format("Opening %d of %d browsers failed:\n%s",
+					failures.size(), futures.size(), Python.join("\n", failures)));
+		}
+
+		List<String> sessionIds = new ArrayList<String>();
+		for (int i = 0; i < started.size(); i++) {
+			String sessionId = webDriverCache.register(started.get(i).webDriver, aliases.get(i),
+					started.get(i).poolKey);
+			invalidatePageCaches();
+			logging.debug(String.format("Opened browser with session id %s", sessionId));
+			sessionIds.add(sessionId);
+		}
+		return sessionIds;
+	}
+
 	/**
 	 * "Switches between active browser instances using an <b>index</b> or an
 	 * <b>alias</b>.<br>
@@ -514,21 +698,178 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 		}
 	}
 
+	@RobotKeywordOverload
+	public void closeAllBrowsers() {
+		closeAllBrowsers("30 seconds");
+	}
+
 	/**
 	 * Closes all open browser instances and resets the browser cache.<br>
 	 * <br>
 	 * After this keyword new indexes returned from `Open Browser` keyword are
 	 * reset to 1. This keyword should be used in test or suite teardown to make
 	 * sure all browsers are closed.<br>
+	 * <br>
+	 * The browsers are closed in parallel. Browsers, which did not quit within
+	 * the <b>timeout</b>, are reported with a warning and left behind.
+	 * Browsers, which failed to quit, are reported with a warning, too.
+	 * Screenshots still being written in the background are completed
+	 * first.<br>
+	 * 
+	 * @param timeout
+	 *            Default=30 seconds. Optional time to wait for the browsers to
+	 *            quit.
 	 * 
 	 * @see BrowserManagement#closeBrowser
 	 * @see BrowserManagement#openBrowser
 	 * @see BrowserManagement#switchBrowser
 	 */
 	@RobotKeyword
-	public void closeAllBrowsers() {
+	@ArgumentNames({ "timeout=30 seconds" })
+	public void closeAllBrowsers(String timeout) {
 		logging.debug("Closing all browsers");
-		webDriverCache.closeAll();
+		screenshot.flushScreenshots();
+		dropBrowserCaches(null);
+		Map<String, Throwable> failures = new TreeMap<String, Throwable>();
+		List<String> hungSessionIds = webDriverCache.closeAll(Robotframework.timestrToSecs(timeout), failures);
+		if (hungSessionIds.size() != 0) {
+			logging.warn(String.format("Browsers with session ids %s did not quit in %s", hungSessionIds,
+					Robotframework.secsToTimestr(Robotframework.timestrToSecs(timeout))));
+		}
+		for (Entry<String, Throwable> failure : failures.entrySet()) {
+			logging.warn(String.format("Browser with session id %s failed to quit: %s", failure.getKey(),
+					failure.getValue()));
+		}
+	}
+
+	@RobotKeywordOverload
+	public void enableBrowserPool() {
+		enableBrowserPool("1");
+	}
+
+	@RobotKeywordOverload
+	public void enableBrowserPool(String size) {
+		enableBrowserPool(size, "10 minutes");
+	}
+
+	/**
+	 * Keeps started browsers ready for `Open Browser`.<br>
+	 * <br>
+	 * When a browser is opened, up to <b>size</b> further browsers with the
+	 * same browser name, remote URL, desired capabilities and browser options
+	 * are started in the background. The next `Open Browser` with the same
+	 * arguments takes one of them and only has to open the URL.<br>
+	 * <br>
+	 * `Close Browser` and `Close All Browsers` do not quit pooled browsers,
+	 * but reset them and keep them for the next `Open Browser`. The reset
+	 * closes all windows but one, deletes the cookies, clears the local and
+	 * session storage of the open page and opens about:blank. Cookies and
+	 * storage of other domains are kept.<br>
+	 * <br>
+	 * Browsers idle for longer than <b>maxIdleTime</b> are quit. Every idle
+	 * browser is checked to be still alive, before it is used.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>Enable Browser Pool</td>
+	 * <td>2</td>
+	 * <td>5 minutes</td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param size
+	 *            Default=1. Optional number of idle browsers kept per browser
+	 *            configuration.
+	 * @param maxIdleTime
+	 *            Default=10 minutes. Optional time after which idle browsers
+	 *            are quit.
+	 * 
+	 * @see BrowserManagement#disableBrowserPool
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "size=1", "maxIdleTime=10 minutes" })
+	public void enableBrowserPool(String size, String maxIdleTime) {
+		WebDriverPool webDriverPool = new WebDriverPool(Integer.parseInt(size),
+				Robotframework.timestrToSecs(maxIdleTime));
+		WebDriverPool oldWebDriverPool = webDriverCache.getWebDriverPool();
+		webDriverCache.setWebDriverPool(webDriverPool);
+		if (oldWebDriverPool != null) {
+			oldWebDriverPool.shutdown();
+		}
+	}
+
+	@RobotKeywordOverload
+	public void enableSessionReuse() {
+		enableSessionReuse(null);
+	}
+
+	@RobotKeywordOverload
+	public void enableSessionReuse(String maxReuse) {
+		enableSessionReuse(maxReuse, null);
+	}
+
+	/**
+	 * Keeps closed browsers open and reuses them for `Open Browser`.<br>
+	 * <br>
+	 * In this soft close mode `Close Browser` and `Close All Browsers` do not
+	 * quit browsers, but reset them. The reset closes all windows but one,
+	 * deletes the cookies, clears the local and session storage of the open
+	 * page and opens about:blank. The next `Open Browser` with the same
+	 * browser name, remote URL, desired capabilities and browser options
+	 * reuses a reset browser and only opens the URL.<br>
+	 * <br>
+	 * A browser is really quit, when it has been opened <b>maxReuse</b> times
+	 * or has been started longer than <b>maxAge</b> ago. Browsers unused for
+	 * 10 minutes are quit as well. Unlike `Enable Browser Pool` no browsers are
+	 * started in the background. `Disable Browser Pool` ends this mode.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>Enable Session Reuse</td>
+	 * <td>20</td>
+	 * <td>30 minutes</td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param maxReuse
+	 *            Default=NONE. Optional number of times a browser is opened
+	 *            at most.
+	 * @param maxAge
+	 *            Default=NONE. Optional time after which a browser is quit.
+	 * 
+	 * @see BrowserManagement#enableBrowserPool
+	 * @see BrowserManagement#disableBrowserPool
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "maxReuse=NONE", "maxAge=NONE" })
+	public void enableSessionReuse(String maxReuse, String maxAge) {
+		WebDriverPool webDriverPool = new WebDriverPool(Integer.MAX_VALUE, false, 600,
+				maxReuse != null ? Integer.parseInt(maxReuse) : 0,
+				maxAge != null ? Robotframework.timestrToSecs(maxAge) : 0);
+		WebDriverPool oldWebDriverPool = webDriverCache.getWebDriverPool();
+		webDriverCache.setWebDriverPool(webDriverPool);
+		if (oldWebDriverPool != null) {
+			oldWebDriverPool.shutdown();
+		}
+	}
+
+	/**
+	 * Quits all idle browsers kept by `Enable Browser Pool` or `Enable Session
+	 * Reuse`.<br>
+	 * <br>
+	 * Browsers still open are quit, when they are closed.<br>
+	 * 
+	 * @see BrowserManagement#enableBrowserPool
+	 */
+	@RobotKeyword
+	public void disableBrowserPool() {
+		WebDriverPool webDriverPool = webDriverCache.getWebDriverPool();
+		webDriverCache.setWebDriverPool(null);
+		if (webDriverPool != null) {
+			webDriverPool.shutdown();
+		}
 	}
 
 	/**
@@ -537,6 +878,7 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	public void closeWindow() {
 		webDriverCache.getCurrent().close();
+		invalidatePageCaches();
 	}
 
 	/**
@@ -663,6 +1005,7 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 		logging.info(String.format("Selecting frame '%s'.", locator));
 		List<WebElement> elements = element.elementFind(locator, true, true);
 		webDriverCache.getCurrent().switchTo().frame(elements.get(0));
+		invalidatePageCaches();
 	}
 
 	@RobotKeywordOverload
@@ -741,6 +1084,7 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	@ArgumentNames({ "locator=NONE" })
 	public void selectWindow(String locator) {
 		WindowManager.select(webDriverCache.getCurrent(), locator);
+		invalidatePageCaches();
 	}
 
 	/**
@@ -749,6 +1093,7 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	public void unselectFrame() {
 		webDriverCache.getCurrent().switchTo().defaultContent();
+		invalidatePageCaches();
 	}
 
 	/**
@@ -972,6 +1317,7 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	public void goBack() {
 		webDriverCache.getCurrent().navigate().back();
+		invalidatePageCaches();
 	}
 
 	/**
@@ -985,6 +1331,8 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	public void goTo(String url) {
 		logging.info(String.format("Opening url '%s'", url));
 		webDriverCache.getCurrent().get(url);
+		invalidatePageCaches();
+		waiting.waitForPageReadyIfEnabled();
 	}
 
 	/**
@@ -993,6 +1341,7 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	public void reloadPage() {
 		webDriverCache.getCurrent().navigate().refresh();
+		invalidatePageCaches();
 	}
 
 	/**
@@ -1331,6 +1680,99 @@ public class BrowserManagement extends RunOnFailureKeywordsAdapter {
 	// Internal Methods
 	// ##############################
 
+	protected void invalidatePageCaches() {
+		WebDriver webDriver = webDriverCache.getCurrent();
+		ElementFinder.invalidatePageCaches(webDriver);
+		String sessionId = webDriverCache.getCurrentSessionId();
+		if (sessionId != null) {
+			element.invalidateElementCache(sessionId);
+			tableElement.invalidateTableSnapshots(sessionId);
+		}
+	}
+
+	/**
+	 * Drops only the cached base URL of the current page, after an action that
+	 * may have navigated without a page load we wait for.
+	 */
+	protected void invalidateBaseUrl() {
+		ElementFinder.invalidateBaseUrl(webDriverCache.getCurrent());
+	}
+
+	/**
+	 * Drops everything cached for the browser with the session id, or for all
+	 * browsers if null, before it is closed or returned to the pool.
+	 */
+	protected void dropBrowserCaches(String sessionId) {
+		element.dropElementCache(sessionId);
+		tableElement.invalidateTableSnapshots(sessionId);
+	}
+
+	/**
+	 * Quits or returns to the pool the web drivers started by `Open Browsers`
+	 * so far. Starts still running quit their web driver themselves, once
+	 * <b>abandoned</b> is set.
+	 */
+	protected void quitStartedWebDrivers(List<SessionIdAliasWebDriverTuple> startedTuples, AtomicBoolean abandoned) {
+		List<SessionIdAliasWebDriverTuple> quits;
+		synchronized (startedTuples) {
+			abandoned.set(true);
+			quits = new ArrayList<SessionIdAliasWebDriverTuple>(startedTuples);
+			startedTuples.clear();
+		}
+		for (SessionIdAliasWebDriverTuple started : quits) {
+			try {
+				webDriverCache.quit(started);
+			} catch (RuntimeException e) {
+				logging.warn(String.format("Could not close started browser: %s", e));
+			}
+		}
+	}
+
+	/**
+	 * Starts or leases a web driver and opens the URL. Does not log, so it can
+	 * be called from any thread.
+	 * 
+	 * @return The web driver and its pool key.
+	 */
+	protected SessionIdAliasWebDriverTuple startWebDriver(String url, final String browserName,
+			final String remoteUrl, final String desiredCapabilities, final String browserOptions) throws Exception {
+		SessionIdAliasWebDriverTuple started = new SessionIdAliasWebDriverTuple();
+		WebDriverPool webDriverPool = webDriverCache.getWebDriverPool();
+		if (webDriverPool != null) {
+			started.poolKey = WebDriverPool.createKey(browserName, remoteUrl, desiredCapabilities, browserOptions);
+			started.webDriver = webDriverPool.lease(started.poolKey, new Callable<WebDriver>() {
+
+				@Override
+				public WebDriver call() throws Exception {
+					return createWebDriver(browserName, desiredCapabilities, remoteUrl, browserOptions);
+				}
+			});
+			// The timeouts may have changed since the browser was started
+			started.webDriver.manage().timeouts().setScriptTimeout((int) (timeout * 1000.0), TimeUnit.MILLISECONDS);
+			started.webDriver.manage().timeouts().implicitlyWait((int) (implicitWait * 1000.0), TimeUnit.MILLISECONDS);
+		} else {
+			started.webDriver = createWebDriver(browserName, desiredCapabilities, remoteUrl, browserOptions);
+		}
+		try {
+			started.webDriver.get(url);
+		} catch (RuntimeException e) {
+			started.webDriver.quit();
+			throw e;
+		}
+		return started;
+	}
+
+	protected String getSpecValue(JSONObject spec, String key, String defaultValue) {
+		Object value = spec.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (value instanceof JSONObject || value instanceof JSONArray) {
+			return JSONValue.toJSONString(value);
+		}
+		return value.toString();
+	}
+
 	protected String getUserFromURL(URL url) {
 		String auth = url.getUserInfo();
 		int index = auth.indexOf(':');
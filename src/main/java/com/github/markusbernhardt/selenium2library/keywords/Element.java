@@ -3,7 +3,11 @@ package com.github.markusbernhardt.selenium2library.keywords;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openqa.selenium.By;
 import org.openqa.selenium.Dimension;
@@ -20,8 +24,10 @@ import org.robotframework.javalib.annotation.RobotKeywords;
 
 import com.github.markusbernhardt.selenium2library.RunOnFailureKeywordsAdapter;
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
+import com.github.markusbernhardt.selenium2library.locators.ElementCache;
 import com.github.markusbernhardt.selenium2library.locators.ElementFinder;
 import com.github.markusbernhardt.selenium2library.utils.Python;
+import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 
 @RobotKeywords
 public class Element extends RunOnFailureKeywordsAdapter {
@@ -44,6 +50,27 @@ public class Element extends RunOnFailureKeywordsAdapter {
 	@Autowired
 	protected Logging logging;
 
+	/**
+	 * Instantiated Waiting keyword bean
+	 */
+	@Autowired
+	protected Waiting waiting;
+
+	/**
+	 * Element caches by session id. Dropped when the browser is closed.
+	 */
+	protected final Map<String, ElementCache> elementCaches = new ConcurrentHashMap<String, ElementCache>();
+
+	/**
+	 * Maximum number of cached elements per browser. 0 disables the cache.
+	 */
+	protected int elementCacheMaxSize = 0;
+
+	/**
+	 * Time to live of cached elements in seconds. 0 means forever.
+	 */
+	protected double elementCacheTimeToLive = 0;
+
 	// ##############################
 	// Keywords - Element Lookups
 	// ##############################
@@ -360,6 +387,160 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		}
 	}
 
+	/**
+	 * Returns the elements found by each of the given <b>locators</b>.<br>
+	 * <br>
+	 * All locators using the default, identifier, id, name, xpath, css or tag
+	 * strategy are resolved at once with a single JavaScript execution, which
+	 * is much faster than looking them up one by one. Locators using any other
+	 * strategy are resolved one after the other.<br>
+	 * <br>
+	 * The result maps every locator to the list of found elements. The list is
+	 * empty, if the locator did not match any elements. See `Introduction` for
+	 * details about locators.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>${elements}=</td>
+	 * <td>Find Elements In Bulk</td>
+	 * <td>id=username</td>
+	 * <td>css=form.login button</td>
+	 * <td>xpath=//footer</td>
+	 * </tr>
+	 * <tr>
+	 * <td>Length Should Be</td>
+	 * <td>${elements['css=form.login button']}</td>
+	 * <td>2</td>
+	 * <td></td>
+	 * <td></td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param locators
+	 *            The locators to locate the elements.
+	 * @return The found elements by locator.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "*locators" })
+	public Map<String, List<WebElement>> findElementsInBulk(String... locators) {
+		Map<String, List<WebElement>> elementsByLocator = ElementFinder.findInBulk(
+				browserManagement.getCurrentWebDriver(), Arrays.asList(locators));
+
+		List<String> lines = new ArrayList<String>();
+		for (Entry<String, List<WebElement>> entry : elementsByLocator.entrySet()) {
+			lines.add(String.format("Locator '%s' matched %d elements.", entry.getKey(), entry.getValue().size()));
+		}
+		logging.info(Python.join("\n", lines));
+		return elementsByLocator;
+	}
+
+	// ##############################
+	// Keywords - Element Cache
+	// ##############################
+
+	@RobotKeywordOverload
+	public void enableElementCache() {
+		enableElementCache("100");
+	}
+
+	@RobotKeywordOverload
+	public void enableElementCache(String maxSize) {
+		enableElementCache(maxSize, null);
+	}
+
+	/**
+	 * Enables caching of found elements for the current and all further opened
+	 * browsers.<br>
+	 * <br>
+	 * Keywords working on a single element remember the first element found by
+	 * a locator and reuse it, when the same locator is used again. This saves
+	 * the lookup for flows like `Element Should Be Enabled`, `Input Text` and
+	 * `Click Element` on the same locator. A cached element, which has become
+	 * stale, is located again automatically. The cache is cleared on
+	 * navigation keywords like `Go To` or `Click Link` and when selecting
+	 * another frame or window.<br>
+	 * <br>
+	 * Checks whether an element is present, visible, clickable or selected,
+	 * like `Page Should Not Contain Element` and all `Wait Until` keywords,
+	 * always look up the element again and do not use the cache.<br>
+	 * <br>
+	 * Only enable the cache, if the first element matching a locator does not
+	 * change without the page being reloaded, or limit the time cached
+	 * elements are reused with <b>timeToLive</b>.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>Enable Element Cache</td>
+	 * <td>200</td>
+	 * <td>5 seconds</td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param maxSize
+	 *            Default=100. The maximum number of cached elements per
+	 *            browser.
+	 * @param timeToLive
+	 *            Default=NONE. Optional time after which a cached element is
+	 *            located again. By default cached elements are reused until
+	 *            they become stale.
+	 * 
+	 * @see Element#disableElementCache
+	 * @see Element#getElementCacheStatistics
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "maxSize=100", "timeToLive=NONE" })
+	public void enableElementCache(String maxSize, String timeToLive) {
+		elementCacheMaxSize = Integer.parseInt(maxSize);
+		elementCacheTimeToLive = timeToLive != null ? Robotframework.timestrToSecs(timeToLive) : 0;
+		synchronized (elementCaches) {
+			for (ElementCache elementCache : elementCaches.values()) {
+				elementCache.setMaxSize(elementCacheMaxSize);
+				elementCache.setTimeToLive(elementCacheTimeToLive);
+			}
+		}
+	}
+
+	/**
+	 * Disables caching of found elements and drops all cached elements.<br>
+	 * 
+	 * @see Element#enableElementCache
+	 */
+	@RobotKeyword
+	public void disableElementCache() {
+		elementCacheMaxSize = 0;
+		elementCaches.clear();
+	}
+
+	/**
+	 * Returns and logs the statistics of the element cache of the current
+	 * browser.<br>
+	 * <br>
+	 * The statistics contain the number of lookups answered from the cache
+	 * (hits), the number of lookups not answered from the cache (misses), the
+	 * number of cached elements located again because they had become stale
+	 * (relocations) or had exceeded their time to live (expirations), and the
+	 * number of currently cached elements (size).<br>
+	 * 
+	 * @return The statistics by name.
+	 * 
+	 * @see Element#enableElementCache
+	 */
+	@RobotKeyword
+	public Map<String, Long> getElementCacheStatistics() {
+		Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+		String sessionId = browserManagement.getCurrentSessionId();
+		ElementCache elementCache = sessionId != null ? elementCaches.get(sessionId) : null;
+		statistics.put("hits", elementCache != null ? elementCache.getHits() : 0L);
+		statistics.put("misses", elementCache != null ? elementCache.getMisses() : 0L);
+		statistics.put("relocations", elementCache != null ? elementCache.getRelocations() : 0L);
+		statistics.put("expirations", elementCache != null ? elementCache.getExpirations() : 0L);
+		statistics.put("size", elementCache != null ? (long) elementCache.size() : 0L);
+		logging.info(String.format("Element cache statistics: %s", statistics));
+		return statistics;
+	}
+
 	// ##############################
 	// Keywords - Attributes
 	// ##############################
@@ -915,7 +1096,10 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		logging.info(String.format("Clicking element '%s'.", locator));
 		List<WebElement> elements = elementFind(locator, true, true);
 
+		waiting.markPageIfReadyWaitEnabled();
 		elements.get(0).click();
+		browserManagement.invalidateBaseUrl();
+		waiting.waitForPageReadyIfEnabled();
 	}
 
 	/**
@@ -948,6 +1132,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		WebElement element = elements.get(0);
 		Actions action = new Actions(browserManagement.getCurrentWebDriver());
 		action.moveToElement(element).moveByOffset(Integer.parseInt(xOffset), Integer.parseInt(yOffset)).perform();
+		browserManagement.invalidateBaseUrl();
 	}
 
 	/**
@@ -968,6 +1153,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		Actions action = new Actions(browserManagement.getCurrentWebDriver());
 
 		action.doubleClick(elements.get(0)).perform();
+		browserManagement.invalidateBaseUrl();
 	}
 
 	/**
@@ -1250,6 +1436,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		}
 		List<WebElement> element = elementFind(locator, true, true);
 		element.get(0).sendKeys(key);
+		browserManagement.invalidateBaseUrl();
 	}
 
 	// ##############################
@@ -1272,6 +1459,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		List<WebElement> elements = elementFind(locator, true, true, "a");
 
 		elements.get(0).click();
+		browserManagement.invalidatePageCaches();
 	}
 
 	/**
@@ -1403,6 +1591,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		}
 		WebElement element = elements.get(0);
 		element.click();
+		browserManagement.invalidateBaseUrl();
 	}
 
 	/**
@@ -1572,6 +1761,18 @@ public class Element extends RunOnFailureKeywordsAdapter {
 	}
 
 	protected List<WebElement> elementFind(String locator, boolean firstOnly, boolean required, String tag) {
+		if (firstOnly && elementCacheMaxSize > 0) {
+			return elementFindCached(locator, required, tag);
+		}
+		return elementFindUncached(locator, firstOnly, required, tag);
+	}
+
+	/**
+	 * Like {@link #elementFind(String, boolean, boolean, String)}, but never
+	 * uses the element cache. For checks, whose result must reflect the
+	 * current state of the page.
+	 */
+	protected List<WebElement> elementFindUncached(String locator, boolean firstOnly, boolean required, String tag) {
 		List<WebElement> elements = ElementFinder.find(browserManagement.getCurrentWebDriver(), locator, tag);
 
 		if (required && elements.size() == 0) {
@@ -1590,6 +1791,48 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		return elements;
 	}
 
+	protected List<WebElement> elementFindCached(String locator, boolean required, String tag) {
+		WebDriver webDriver = browserManagement.getCurrentWebDriver();
+		String sessionId = browserManagement.getCurrentSessionId();
+		ElementCache elementCache;
+		synchronized (elementCaches) {
+			elementCache = elementCaches.get(sessionId);
+			if (elementCache == null) {
+				elementCache = new ElementCache(elementCacheMaxSize, elementCacheTimeToLive);
+				elementCaches.put(sessionId, elementCache);
+			}
+		}
+
+		List<WebElement> elements = new ArrayList<WebElement>();
+		WebElement element = elementCache.find(webDriver, locator, tag);
+		if (element != null) {
+			elements.add(element);
+		} else if (required) {
+			throw new Selenium2LibraryNonFatalException(
+					String.format("Element locator '%s' did not match any elements.", locator));
+		}
+		return elements;
+	}
+
+	protected void invalidateElementCache(String sessionId) {
+		ElementCache elementCache = elementCaches.get(sessionId);
+		if (elementCache != null) {
+			elementCache.clear();
+		}
+	}
+
+	/**
+	 * Drops the element cache of the browser with the session id, or of all
+	 * browsers if null.
+	 */
+	protected void dropElementCache(String sessionId) {
+		if (sessionId != null) {
+			elementCaches.remove(sessionId);
+		} else {
+			elementCaches.clear();
+		}
+	}
+
 	protected boolean frameContains(String locator, String text) {
 		WebDriver current = browserManagement.getCurrentWebDriver();
 		List<WebElement> elements = elementFind(locator, true, true);
@@ -1598,6 +1841,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 		logging.info(String.format("Searching for text from frame '%s'.", locator));
 		boolean found = isTextPresent(text);
 		current.switchTo().defaultContent();
+		browserManagement.invalidatePageCaches();
 
 		return found;
 	}
@@ -1627,7 +1871,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 	}
 
 	protected boolean isVisible(String locator) {
-		List<WebElement> elements = elementFind(locator, true, false);
+		List<WebElement> elements = elementFindUncached(locator, true, false, null);
 		if (elements.size() == 0) {
 			return false;
 		}
@@ -1636,7 +1880,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 	}
 
 	protected boolean isClickable(String locator) {
-		List<WebElement> webElements = elementFind(locator, true, false);
+		List<WebElement> webElements = elementFindUncached(locator, true, false, null);
 		if (webElements.size() == 0) {
 			return false;
 		}
@@ -1645,7 +1889,7 @@ public class Element extends RunOnFailureKeywordsAdapter {
 	}
 
 	protected boolean isSelected(String locator) {
-		List<WebElement> webElements = elementFind(locator, true, false);
+		List<WebElement> webElements = elementFindUncached(locator, true, false, null);
 		if (webElements.size() == 0) {
 			return false;
 		}
@@ -1675,12 +1919,13 @@ public class Element extends RunOnFailureKeywordsAdapter {
 	}
 
 	protected boolean isElementPresent(String locator, String tag) {
-		return elementFind(locator, true, false, tag).size() != 0;
+		return elementFindUncached(locator, true, false, tag).size() != 0;
 	}
 
 	protected boolean pageContains(String text) {
 		WebDriver current = browserManagement.getCurrentWebDriver();
 		current.switchTo().defaultContent();
+		browserManagement.invalidatePageCaches();
 
 		if (isTextPresent(text)) {
 			return true;
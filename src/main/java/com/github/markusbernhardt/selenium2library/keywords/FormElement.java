@@ -16,6 +16,12 @@ import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalExcep
 @RobotKeywords
 public class FormElement extends RunOnFailureKeywordsAdapter {
 
+	/**
+	 * Instantiated BrowserManagement keyword bean
+	 */
+	@Autowired
+	protected BrowserManagement browserManagement;
+
 	/**
 	 * Instantiated Element keyword bean
 	 */
@@ -28,6 +34,12 @@ public class FormElement extends RunOnFailureKeywordsAdapter {
 	@Autowired
 	protected Logging logging;
 
+	/**
+	 * Instantiated Waiting keyword bean
+	 */
+	@Autowired
+	protected Waiting waiting;
+
 	// ##############################
 	// Keywords
 	// ##############################
@@ -56,7 +68,10 @@ public class FormElement extends RunOnFailureKeywordsAdapter {
 			locator = "xpath=//form";
 		}
 		List<WebElement> webElements = element.elementFind(locator, true, true, "form");
+		waiting.markPageIfReadyWaitEnabled();
 		webElements.get(0).submit();
+		browserManagement.invalidatePageCaches();
+		waiting.waitForPageReadyIfEnabled();
 	}
 
 	/**
@@ -785,6 +800,7 @@ public class FormElement extends RunOnFailureKeywordsAdapter {
 			elements = element.elementFind(locator, true, true, "button");
 		}
 		elements.get(0).click();
+		browserManagement.invalidateBaseUrl();
 	}
 
 	@RobotKeywordOverload
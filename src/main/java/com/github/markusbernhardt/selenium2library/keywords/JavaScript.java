@@ -229,7 +229,9 @@ public class JavaScript extends RunOnFailureKeywordsAdapter {
 	public Object executeJavascript(String... code) {
 		String js = getJavascriptToExecute(Python.join("", Arrays.asList(code)));
 		String.format("Executing JavaScript:\n%s", js);
-		return ((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeScript(js);
+		Object result = ((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeScript(js);
+		browserManagement.invalidateBaseUrl();
+		return result;
 	}
 
 	/**
@@ -272,7 +274,9 @@ public class JavaScript extends RunOnFailureKeywordsAdapter {
 	public Object executeAsyncJavascript(String... code) {
 		String js = getJavascriptToExecute(Python.join("", Arrays.asList(code)));
 		String.format("Executing JavaScript:\n%s", js);
-		return ((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeAsyncScript(js);
+		Object result = ((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeAsyncScript(js);
+		browserManagement.invalidateBaseUrl();
+		return result;
 	}
 
 	/**
@@ -1,11 +1,15 @@
 package com.github.markusbernhardt.selenium2library.keywords;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.python.core.PyString;
 import org.python.util.PythonInterpreter;
@@ -17,6 +21,8 @@ import org.robotframework.javalib.annotation.RobotKeywords;
 
 import com.github.markusbernhardt.selenium2library.RunOnFailureKeywordsAdapter;
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
+import com.github.markusbernhardt.selenium2library.utils.RobotLogger;
+import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 
 @RobotKeywords
 public class Logging extends RunOnFailureKeywordsAdapter {
@@ -24,13 +30,31 @@ public class Logging extends RunOnFailureKeywordsAdapter {
 	protected final static Map<String, String[]> VALID_LOG_LEVELS;
 	protected static String logDir = null;
 
+	/**
+	 * Default maximum number of characters of a page source logged inline in
+	 * file mode
+	 */
+	public final static int DEFAULT_SOURCE_INLINE_LIMIT = 65536;
+
+	/**
+	 * Whether page sources larger than the inline limit are written to
+	 * compressed side files
+	 */
+	protected static volatile boolean sourceFileMode = false;
+
+	/**
+	 * Maximum number of characters of a page source logged inline in file
+	 * mode
+	 */
+	protected static volatile int sourceInlineLimit = DEFAULT_SOURCE_INLINE_LIMIT;
+
 	static {
 		VALID_LOG_LEVELS = new HashMap<String, String[]>();
-		VALID_LOG_LEVELS.put("debug", new String[] { "debug", "" });
-		VALID_LOG_LEVELS.put("html", new String[] { "info", ", True, False" });
-		VALID_LOG_LEVELS.put("info", new String[] { "info", "" });
-		VALID_LOG_LEVELS.put("trace", new String[] { "trace", "" });
-		VALID_LOG_LEVELS.put("warn", new String[] { "warn", "" });
+		VALID_LOG_LEVELS.put("debug", new String[] { "DEBUG", "false" });
+		VALID_LOG_LEVELS.put("html", new String[] { "INFO", "true" });
+		VALID_LOG_LEVELS.put("info", new String[] { "INFO", "false" });
+		VALID_LOG_LEVELS.put("trace", new String[] { "TRACE", "false" });
+		VALID_LOG_LEVELS.put("warn", new String[] { "WARN", "false" });
 	}
 
 	/**
@@ -154,6 +178,9 @@ public class Logging extends RunOnFailureKeywordsAdapter {
 	/**
 	 * Logs and returns the entire html source of the current page or frame.<br>
 	 * <br>
+	 * In file mode large sources are written to a compressed file in the log
+	 * directory instead. See `Set Source Log Mode`.<br>
+	 * <br>
 	 * See `Introduction` for details about the <b>logLevel</b>.<br>
 	 * 
 	 * @param logLevel
@@ -166,10 +193,62 @@ public class Logging extends RunOnFailureKeywordsAdapter {
 	@ArgumentNames({ "logLevel=INFO" })
 	public String logSource(String logLevel) {
 		String actual = browserManagement.getSource();
-		log(actual, logLevel);
+		logPageSource(actual, logLevel);
 		return actual;
 	}
 
+	@RobotKeywordOverload
+	public String setSourceLogMode(String mode) {
+		return setSourceLogMode(mode, null);
+	}
+
+	/**
+	 * Sets how page sources are logged by `Log Source` and by the keywords,
+	 * which log the page source on failure.<br>
+	 * <br>
+	 * In <b>inline</b> mode, the default, the page source is logged as
+	 * message.<br>
+	 * <br>
+	 * In <b>file</b> mode page sources with more than <b>inlineLimit</b>
+	 * characters are written gzip compressed to a file named after their SHA-1
+	 * hash in the log directory, and only a link to the file is logged. An
+	 * unchanged page source is stored only once.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>Set Source Log Mode</td>
+	 * <td>file</td>
+	 * <td>10000</td>
+	 * <td># Page sources larger than 10000 characters are written to files</td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param mode
+	 *            The log mode: inline or file.
+	 * @param inlineLimit
+	 *            Default=NONE. Optional maximum number of characters of a page
+	 *            source logged inline in file mode. NONE keeps the current
+	 *            limit.
+	 * @return The previous log mode.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "mode", "inlineLimit=NONE" })
+	public String setSourceLogMode(String mode, String inlineLimit) {
+		String oldMode = sourceFileMode ? "file" : "inline";
+		if (mode.equalsIgnoreCase("file")) {
+			sourceFileMode = true;
+		} else if (mode.equalsIgnoreCase("inline")) {
+			sourceFileMode = false;
+		} else {
+			throw new Selenium2LibraryNonFatalException(String.format("Source log mode %s is invalid.", mode));
+		}
+		if (inlineLimit != null && !inlineLimit.equalsIgnoreCase("NONE")) {
+			sourceInlineLimit = Integer.parseInt(inlineLimit);
+		}
+		return oldMode;
+	}
+
 	@RobotKeywordOverload
 	public String logTitle() {
 		return logTitle("INFO");
@@ -336,34 +415,81 @@ public class Logging extends RunOnFailureKeywordsAdapter {
 		}
 	}
 
-	protected void log0(String msg, String methodName, String methodArguments) {
-		if (msg.length() > 1024) {
-			// Message is too large.
-			// There is a hard limit of 100k in the Jython source code parser
-			try {
-				// Write message to temp file
-				File tempFile = File.createTempFile("Selenium2Library-", ".log");
-				tempFile.deleteOnExit();
-				FileWriter writer = new FileWriter(tempFile);
-				writer.write(msg);
-				writer.close();
-
-				// Read the message in Python back and log it.
-				loggingPythonInterpreter.get().exec(
-						String.format("from __future__ import with_statement\n" + "\n"
-								+ "with open('%s', 'r') as msg_file:\n" + "    msg = msg_file.read()\n"
-								+ "    logger.%s(msg%s)", tempFile.getAbsolutePath().replace("\\", "\\\\"), methodName,
-								methodArguments));
-
-			} catch (IOException e) {
-				throw new Selenium2LibraryNonFatalException("Error in handling temp file for long log message.", e);
+	/**
+	 * Logs the page source inline or, in file mode, links a compressed side
+	 * file.
+	 */
+	protected void logPageSource(String source, String logLevel) {
+		String[] methodParameters = VALID_LOG_LEVELS.get(logLevel.toLowerCase());
+		if (methodParameters == null) {
+			throw new Selenium2LibraryNonFatalException(String.format("Given log level %s is invalid.", logLevel));
+		}
+		if (!sourceFileMode || source == null || source.length() <= sourceInlineLimit) {
+			log0(source, methodParameters[0], methodParameters[1]);
+			return;
+		}
+
+		File logdir = getLogDir();
+		byte[] bytes;
+		File path;
+		try {
+			bytes = source.getBytes("UTF-8");
+			path = new File(logdir, String.format("selenium-source-%s.html.gz", sha1(bytes)));
+			if (!path.exists()) {
+				writeSource(path, bytes);
 			}
-		} else {
-			// Message is small enough to get parsed by Jython
-			loggingPythonInterpreter.get().exec(
-					String.format("logger.%s('%s'%s)", methodName, msg.replace("\\", "\\\\").replace("'", "\\'")
-							.replace("\n", "\\n"), methodArguments));
+		} catch (IOException e) {
+			warn(String.format("Can't write page source to '%s': %s", logdir.getAbsolutePath(), e.getMessage()));
+			log0(source, methodParameters[0], methodParameters[1]);
+			return;
 		}
+		RobotLogger.write(String.format("<a href=\"%s\">Page source</a> (%d characters, %d bytes compressed)",
+				Robotframework.getLinkPath(path, logdir), source.length(), path.length()), methodParameters[0], true);
+	}
+
+	/**
+	 * Writes the compressed page source to a temporary file and renames it, so
+	 * an existing file is always complete.
+	 */
+	protected static void writeSource(File path, byte[] bytes) throws IOException {
+		File tmp = new File(path.getParentFile(), path.getName() + ".tmp");
+		OutputStream os = null;
+		try {
+			os = new GZIPOutputStream(new FileOutputStream(tmp), 65536);
+			os.write(bytes);
+			os.close();
+			os = null;
+		} finally {
+			if (os != null) {
+				try {
+					os.close();
+				} catch (IOException e) {
+					// Failed already
+				}
+			}
+		}
+		if (!tmp.renameTo(path) && !path.exists()) {
+			tmp.delete();
+			throw new IOException(String.format("Can't rename '%s'", tmp.getAbsolutePath()));
+		}
+		tmp.delete();
+	}
+
+	protected static String sha1(byte[] bytes) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b & 0xff));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected void log0(String msg, String level, String html) {
+		RobotLogger.write(msg, level, Boolean.parseBoolean(html));
 	}
 
 	protected File getLogDir() {
@@ -1,12 +1,21 @@
 package com.github.markusbernhardt.selenium2library.keywords;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import org.python.core.Py;
+import org.python.core.PyObject;
+import org.python.core.PyUnicode;
 import org.python.util.PythonInterpreter;
 import org.robotframework.javalib.annotation.ArgumentNames;
 import org.robotframework.javalib.annotation.Autowired;
 import org.robotframework.javalib.annotation.RobotKeyword;
+import org.robotframework.javalib.annotation.RobotKeywordOverload;
 import org.robotframework.javalib.annotation.RobotKeywords;
 
 import com.github.markusbernhardt.selenium2library.RunOnFailureKeywordsAdapter;
+import com.github.markusbernhardt.selenium2library.utils.RobotLogger;
+import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 
 @RobotKeywords
 public class RunOnFailure extends RunOnFailureKeywordsAdapter {
@@ -17,10 +26,39 @@ public class RunOnFailure extends RunOnFailureKeywordsAdapter {
 	protected String runOnFailureKeyword = "Capture Page Screenshot";
 
 	/**
-	 * Only run keyword on failure if true
+	 * Only run keyword on failure if false
 	 */
 	protected boolean runningOnFailureRoutine;
 
+	/**
+	 * Minimum time in nanoseconds between two runs of the keyword. 0 means
+	 * no limit.
+	 */
+	protected volatile long runOnFailureInterval = 0;
+
+	/**
+	 * Run the keyword only on the first failure of every test
+	 */
+	protected volatile boolean runOnFailureOncePerTest = false;
+
+	/**
+	 * Do not run the keyword inside of retrying or error ignoring BuiltIn
+	 * keywords
+	 */
+	protected volatile boolean skipRunOnFailureInRetries = false;
+
+	/**
+	 * The test, in which the keyword was run last
+	 */
+	protected String lastRunOnFailureTest;
+
+	/**
+	 * The time in nanoseconds, when the keyword was run last
+	 */
+	protected long lastRunOnFailureTime;
+
+	protected boolean hasRunOnFailure;
+
 	/**
 	 * Instantiated Logging keyword bean
 	 */
@@ -43,7 +81,8 @@ public class RunOnFailure extends RunOnFailureKeywordsAdapter {
 	 * The initial keyword to use is set at importing the library and the
 	 * keyword that is used by default is `Capture Page Screenshot`. Taking a
 	 * screenshot when something failed is a very useful feature, but notice
-	 * that it can slow down the execution.<br>
+	 * that it can slow down the execution. See `Set Run On Failure Throttle`
+	 * to limit how often the keyword is run.<br>
 	 * <br>
 	 * This keyword returns the name of the previously registered failure
 	 * keyword. It can be used to restore the original value later.<br>
@@ -90,17 +129,116 @@ public class RunOnFailure extends RunOnFailureKeywordsAdapter {
 		return oldKeywordText;
 	}
 
+	@RobotKeywordOverload
+	public List<String> setRunOnFailureThrottle(String interval) {
+		return setRunOnFailureThrottle(interval, "False");
+	}
+
+	@RobotKeywordOverload
+	public List<String> setRunOnFailureThrottle(String interval, String oncePerTest) {
+		return setRunOnFailureThrottle(interval, oncePerTest, "False");
+	}
+
+	/**
+	 * Limits how often the keyword registered with `Register Keyword To Run On
+	 * Failure` is run and returns the previous limits.<br>
+	 * <br>
+	 * The keyword is not run again within <b>interval</b> after its last run.
+	 * With <b>oncePerTest</b> it is only run on the first failure of every
+	 * test. With <b>skipInRetries</b> it is not run for failures inside of
+	 * `BuiltIn.Wait Until Keyword Succeeds`, `BuiltIn.Run Keyword And Ignore
+	 * Error`, `BuiltIn.Run Keyword And Return Status` and `BuiltIn.Run Keyword
+	 * And Expect Error`. Notice that then a screenshot is also not taken, when
+	 * the last retry fails.<br>
+	 * <br>
+	 * By default there are no limits.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>@{previous}=</td>
+	 * <td>Set Run On Failure Throttle</td>
+	 * <td>10 seconds</td>
+	 * <td>True</td>
+	 * <td>True</td>
+	 * </tr>
+	 * <tr>
+	 * <td>Set Run On Failure Throttle</td>
+	 * <td>@{previous}</td>
+	 * <td></td>
+	 * <td></td>
+	 * <td></td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param interval
+	 *            The minimum time between two runs. 0 means no limit.
+	 * @param oncePerTest
+	 *            Default=False. Optional flag to run the keyword only once per
+	 *            test.
+	 * @param skipInRetries
+	 *            Default=False. Optional flag to not run the keyword inside of
+	 *            retrying or error ignoring keywords.
+	 * @return The previous interval, oncePerTest and skipInRetries.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "interval", "oncePerTest=False", "skipInRetries=False" })
+	public List<String> setRunOnFailureThrottle(String interval, String oncePerTest, String skipInRetries) {
+		List<String> previous = new ArrayList<String>();
+		previous.add(Robotframework.secsToTimestr(runOnFailureInterval / 1000000000.0));
+		previous.add(runOnFailureOncePerTest ? "True" : "False");
+		previous.add(skipRunOnFailureInRetries ? "True" : "False");
+
+		runOnFailureInterval = (long) (Robotframework.timestrToSecs(interval) * 1000000000.0);
+		runOnFailureOncePerTest = "true".equals(oncePerTest.trim().toLowerCase());
+		skipRunOnFailureInRetries = "true".equals(skipInRetries.trim().toLowerCase());
+		synchronized (this) {
+			hasRunOnFailure = false;
+			lastRunOnFailureTest = null;
+		}
+		return previous;
+	}
+
 	// ##############################
 	// Internal Methods
 	// ##############################
 
-	protected static ThreadLocal<PythonInterpreter> runOnFailurePythonInterpreter = new ThreadLocal<PythonInterpreter>() {
+	/**
+	 * Python functions to get the long name of the current test, or None if
+	 * the keyword must not be run, and to run a keyword
+	 */
+	protected final static String RUN_ON_FAILURE_FUNCTIONS = "import sys\n"
+			+ "from robot.libraries.BuiltIn import BuiltIn\n"
+			+ "from robot.running.context import EXECUTION_CONTEXTS\n"
+			+ "RETRY_KEYWORDS = ('wait_until_keyword_succeeds', 'run_keyword_and_ignore_error',\n"
+			+ "                  'run_keyword_and_return_status', 'run_keyword_and_expect_error')\n"
+			+ "def get_failure_context(skip_in_retries):\n"
+			+ "    if EXECUTION_CONTEXTS.current is None:\n"
+			+ "        return None\n"
+			+ "    if skip_in_retries:\n"
+			+ "        frame = sys._getframe()\n"
+			+ "        while frame is not None:\n"
+			+ "            if frame.f_code.co_name in RETRY_KEYWORDS:\n"
+			+ "                return None\n"
+			+ "            frame = frame.f_back\n"
+			+ "    builtin = BuiltIn()\n"
+			+ "    return u'%s.%s' % (builtin.get_variable_value('${SUITE NAME}'),\n"
+			+ "                       builtin.get_variable_value('${TEST NAME}'))\n"
+			+ "def run_keyword(name):\n"
+			+ "    BuiltIn().run_keyword(name)\n";
+
+	/**
+	 * The compiled functions get_failure_context and run_keyword of every
+	 * thread
+	 */
+	protected static ThreadLocal<PyObject[]> runOnFailureFunctions = new ThreadLocal<PyObject[]>() {
 
 		@Override
-		protected PythonInterpreter initialValue() {
+		protected PyObject[] initialValue() {
 			PythonInterpreter pythonInterpreter = new PythonInterpreter();
-			pythonInterpreter.exec("from robot.libraries.BuiltIn import BuiltIn; from robot.running.context import EXECUTION_CONTEXTS; BIN = BuiltIn();");
-			return pythonInterpreter;
+			pythonInterpreter.exec(RUN_ON_FAILURE_FUNCTIONS);
+			return new PyObject[] { pythonInterpreter.get("get_failure_context"),
+					pythonInterpreter.get("run_keyword") };
 		}
 	};
 
@@ -111,14 +249,21 @@ public class RunOnFailure extends RunOnFailureKeywordsAdapter {
 		if (runningOnFailureRoutine) {
 			return;
 		}
-		if(runOnFailurePythonInterpreter.get().eval("EXECUTION_CONTEXTS.current").toString().equals("None")) {
+		PyObject[] functions = runOnFailureFunctions.get();
+		PyObject context = functions[0].__call__(skipRunOnFailureInRetries ? Py.True : Py.False);
+		if (context == Py.None) {
+			return;
+		}
+		if (!isRunOnFailureAllowed(context.toString())) {
 			return;
 		}
-		
+		// Write the messages of the failed keyword before the ones of the
+		// run-on-failure keyword
+		RobotLogger.flush();
+
+		runningOnFailureRoutine = true;
 		try {
-			runOnFailurePythonInterpreter.get().exec(
-					String.format("BIN.run_keyword('%s')",
-							runOnFailureKeyword.replace("'", "\\'").replace("\n", "\\n")));
+			functions[1].__call__(new PyUnicode(runOnFailureKeyword));
 		} catch (RuntimeException r) {
 			logging.warn(String.format("Keyword '%s' could not be run on failure%s", runOnFailureKeyword,
 					r.getMessage() != null ? " '" + r.getMessage() + "'" : ""));
@@ -127,4 +272,23 @@ public class RunOnFailure extends RunOnFailureKeywordsAdapter {
 		}
 	}
 
+	/**
+	 * Checks the limits and remembers the run, if allowed.
+	 */
+	protected synchronized boolean isRunOnFailureAllowed(String test) {
+		long now = System.nanoTime();
+		if (hasRunOnFailure) {
+			if (runOnFailureOncePerTest && test.equals(lastRunOnFailureTest)) {
+				return false;
+			}
+			if (runOnFailureInterval > 0 && now - lastRunOnFailureTime < runOnFailureInterval) {
+				return false;
+			}
+		}
+		hasRunOnFailure = true;
+		lastRunOnFailureTest = test;
+		lastRunOnFailureTime = now;
+		return true;
+	}
+
 }
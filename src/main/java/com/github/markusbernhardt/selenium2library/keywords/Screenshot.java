@@ -1,11 +1,27 @@
 package com.github.markusbernhardt.selenium2library.keywords;
 
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
 import org.robotframework.javalib.annotation.ArgumentNames;
 import org.robotframework.javalib.annotation.Autowired;
 import org.robotframework.javalib.annotation.RobotKeyword;
@@ -13,6 +29,9 @@ import org.robotframework.javalib.annotation.RobotKeywordOverload;
 import org.robotframework.javalib.annotation.RobotKeywords;
 
 import com.github.markusbernhardt.selenium2library.RunOnFailureKeywordsAdapter;
+import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
+import com.github.markusbernhardt.selenium2library.utils.AsyncFileWriter;
+import com.github.markusbernhardt.selenium2library.utils.LruCache;
 import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 
 @RobotKeywords
@@ -24,12 +43,37 @@ public class Screenshot extends RunOnFailureKeywordsAdapter {
 	@Autowired
 	protected BrowserManagement browserManagement;
 
+	/**
+	 * Instantiated Element keyword bean
+	 */
+	@Autowired
+	protected Element element;
+
 	/**
 	 * Instantiated Logging keyword bean
 	 */
 	@Autowired
 	protected Logging logging;
 
+	/**
+	 * Scrolls the element in <code>arguments[0]</code>, if any, into view and
+	 * returns its bounding rectangle, the scroll offsets, the viewport size
+	 * and the device pixel ratio.
+	 */
+	protected final static String GET_GEOMETRY_SCRIPT = "var e = arguments[0], r = null;\n"
+			+ "if (e) {\n"
+			+ "  r = e.getBoundingClientRect();\n"
+			+ "  if (r.top < 0 || r.left < 0 || r.bottom > window.innerHeight || r.right > window.innerWidth) {\n"
+			+ "    e.scrollIntoView(true);\n"
+			+ "    r = e.getBoundingClientRect();\n"
+			+ "  }\n"
+			+ "}\n"
+			+ "var d = document.documentElement;\n"
+			+ "return [r ? r.left : 0, r ? r.top : 0, r ? r.width : 0, r ? r.height : 0,\n"
+			+ "  window.pageXOffset || d.scrollLeft || 0, window.pageYOffset || d.scrollTop || 0,\n"
+			+ "  window.innerWidth || d.clientWidth, window.innerHeight || d.clientHeight,\n"
+			+ "  window.devicePixelRatio || 1];";
+
 	// ##############################
 	// Keywords
 	// ##############################
@@ -48,6 +92,10 @@ public class Screenshot extends RunOnFailureKeywordsAdapter {
 	 * considered relative to the same directory, if it is not given in absolute
 	 * format.<br>
 	 * <br>
+	 * If no filename is given and an identical screenshot has already been
+	 * saved into the log directory, the existing file is linked instead of
+	 * writing a new one.<br>
+	 * <br>
 	 * A CSS can be used to modify how the screenshot is taken. By default the
 	 * background color is changed to avoid possible problems with background
 	 * leaking when the page layout is somehow broken.<br>
@@ -59,9 +107,6 @@ public class Screenshot extends RunOnFailureKeywordsAdapter {
 	@ArgumentNames({ "filename=NONE" })
 	public void capturePageScreenshot(String filename) {
 		File logdir = logging.getLogDir();
-		File path = new File(logdir, normalizeFilename(filename));
-		String link = Robotframework.getLinkPath(path, logdir);
-
 		TakesScreenshot takesScreenshot = ((TakesScreenshot) browserManagement.getCurrentWebDriver());
 		if (takesScreenshot == null) {
 			logging.warn("Can't take screenshot. No open browser found");
@@ -69,10 +114,167 @@ public class Screenshot extends RunOnFailureKeywordsAdapter {
 		}
 
 		byte[] png = takesScreenshot.getScreenshotAs(OutputType.BYTES);
-		writeScreenshot(path, png);
+		logScreenshot(logdir, filename, png);
+	}
 
-		logging.html(String.format(
-				"</td></tr><tr><td colspan=\"3\"><a href=\"%s\"><img src=\"%s\" width=\"800px\"></a>", link, link));
+	@RobotKeywordOverload
+	public void captureElementScreenshot(String locator) {
+		captureElementScreenshot(locator, null);
+	}
+
+	/**
+	 * Take a screenshot of the element identified by <b>locator</b> and embed
+	 * it into the log.<br>
+	 * <br>
+	 * The element is scrolled into view, if necessary. The screenshot of the
+	 * page is cropped to the bounding rectangle of the element. Parts of the
+	 * element outside of the captured area are cut off.<br>
+	 * <br>
+	 * See `Capture Page Screenshot` for details about the <b>filename</b> and
+	 * `Introduction` for details about locators.<br>
+	 * 
+	 * @param locator
+	 *            The locator to locate the element.
+	 * @param filename
+	 *            Default=NONE. Name of the file to write.
+	 * 
+	 * @see Screenshot#captureRegionScreenshot
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "locator", "filename=NONE" })
+	public void captureElementScreenshot(String locator, String filename) {
+		WebElement webElement = element.elementFind(locator, true, true).get(0);
+		captureScreenshot(webElement, 0, 0, 0, 0, filename);
+	}
+
+	@RobotKeywordOverload
+	public void captureRegionScreenshot(int x, int y, int width, int height) {
+		captureRegionScreenshot(x, y, width, height, null);
+	}
+
+	/**
+	 * Take a screenshot of the rectangle given by <b>x</b>, <b>y</b>,
+	 * <b>width</b> and <b>height</b> in CSS pixels relative to the top left
+	 * corner of the page and embed it into the log.<br>
+	 * <br>
+	 * Parts of the rectangle outside of the captured area are cut off.<br>
+	 * <br>
+	 * See `Capture Page Screenshot` for details about the <b>filename</b>.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>Capture Region Screenshot</td>
+	 * <td>0</td>
+	 * <td>0</td>
+	 * <td>400</td>
+	 * <td>300</td>
+	 * <td>header.png</td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param x
+	 *            The left edge of the rectangle.
+	 * @param y
+	 *            The top edge of the rectangle.
+	 * @param width
+	 *            The width of the rectangle.
+	 * @param height
+	 *            The height of the rectangle.
+	 * @param filename
+	 *            Default=NONE. Name of the file to write.
+	 * 
+	 * @see Screenshot#captureElementScreenshot
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "x", "y", "width", "height", "filename=NONE" })
+	public void captureRegionScreenshot(int x, int y, int width, int height, String filename) {
+		captureScreenshot(null, x, y, width, height, filename);
+	}
+
+	/**
+	 * Sets the width of the thumbnails embedded into the log for the
+	 * screenshots of `Capture Page Screenshot`.<br>
+	 * <br>
+	 * With a width greater than 0 a downscaled JPEG thumbnail is written next
+	 * to every screenshot and embedded into the log, linking to the full
+	 * image. This keeps the log small and fast to load. With width 0, the
+	 * default, the full image is embedded.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>${orig width}=</td>
+	 * <td>Set Screenshot Thumbnail Width</td>
+	 * <td>400</td>
+	 * </tr>
+	 * <tr>
+	 * <td>Capture Page Screenshot</td>
+	 * <td></td>
+	 * <td></td>
+	 * </tr>
+	 * <tr>
+	 * <td>Set Screenshot Thumbnail Width</td>
+	 * <td>${orig width}</td>
+	 * <td></td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param width
+	 *            The width of the thumbnails in pixels. 0 disables thumbnails.
+	 * @return The previous width.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "width" })
+	public int setScreenshotThumbnailWidth(int width) {
+		int oldWidth = thumbnailWidth;
+		thumbnailWidth = Math.max(0, width);
+		return oldWidth;
+	}
+
+	@RobotKeywordOverload
+	public void enableAsyncScreenshots() {
+		enableAsyncScreenshots("16");
+	}
+
+	/**
+	 * Writes the screenshots of `Capture Page Screenshot` to disk in the
+	 * background.<br>
+	 * <br>
+	 * The keyword logs the link to the screenshot, as soon as the browser
+	 * returned the image, and continues while the file is written. Up to
+	 * <b>queueSize</b> screenshots wait to be written. If the queue is full,
+	 * `Capture Page Screenshot` waits for the next screenshot to be
+	 * written.<br>
+	 * <br>
+	 * All waiting screenshots are written by `Close All Browsers`, by `Disable
+	 * Async Screenshots` and when the JVM exits.<br>
+	 * 
+	 * @param queueSize
+	 *            Default=16. Optional maximum number of screenshots waiting
+	 *            to be written.
+	 * 
+	 * @see Screenshot#disableAsyncScreenshots
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "queueSize=16" })
+	public void enableAsyncScreenshots(String queueSize) {
+		AsyncFileWriter oldAsyncFileWriter = asyncFileWriter;
+		asyncFileWriter = new AsyncFileWriter(Integer.parseInt(queueSize));
+		shutdownAsyncFileWriter(oldAsyncFileWriter);
+	}
+
+	/**
+	 * Writes all waiting screenshots and writes further screenshots of
+	 * `Capture Page Screenshot` at once again.<br>
+	 * 
+	 * @see Screenshot#enableAsyncScreenshots
+	 */
+	@RobotKeyword
+	public void disableAsyncScreenshots() {
+		AsyncFileWriter oldAsyncFileWriter = asyncFileWriter;
+		asyncFileWriter = null;
+		shutdownAsyncFileWriter(oldAsyncFileWriter);
 	}
 
 	// ##############################
@@ -81,6 +283,297 @@ public class Screenshot extends RunOnFailureKeywordsAdapter {
 
 	protected int screenshotIndex = 0;
 
+	/**
+	 * The width of the thumbnails in pixels, or 0 to embed the full images
+	 */
+	protected volatile int thumbnailWidth = 0;
+
+	/**
+	 * Maximum number of screenshots and thumbnails remembered for reuse
+	 */
+	public final static int MAX_SCREENSHOT_FILES = 1000;
+
+	/**
+	 * The saved screenshots and thumbnails by the SHA-1 hash of their content
+	 * and the thumbnail width
+	 */
+	protected final LruCache<String, File> screenshotFiles = new LruCache<String, File>(MAX_SCREENSHOT_FILES);
+
+	/**
+	 * Saves the screenshot, if no identical one has been saved yet, and
+	 * embeds it into the log. Without a filename an identical screenshot is
+	 * reused and the screenshot counter is only advanced for a new file.
+	 */
+	protected void logScreenshot(File logdir, String filename, byte[] png) {
+		String hash = Logging.sha1(png);
+		File existing = screenshotFiles.get(hash);
+		File path;
+		if (filename == null && existing != null && logdir.equals(existing.getParentFile())) {
+			path = existing;
+		} else {
+			path = new File(logdir, normalizeFilename(filename));
+			writeFile(path, png);
+			screenshotFiles.put(hash, path);
+		}
+		String link = Robotframework.getLinkPath(path, logdir);
+
+		int thumbnailWidth = this.thumbnailWidth;
+		if (thumbnailWidth > 0) {
+			String thumbnailKey = hash + "@" + thumbnailWidth;
+			File thumbnail = screenshotFiles.get(thumbnailKey);
+			if (thumbnail == null || !logdir.equals(thumbnail.getParentFile())) {
+				thumbnail = writeThumbnail(path, png, thumbnailWidth);
+				if (thumbnail != null) {
+					screenshotFiles.put(thumbnailKey, thumbnail);
+				}
+			}
+			if (thumbnail != null) {
+				logging.html(String.format("</td></tr><tr><td colspan=\"3\"><a href=\"%s\"><img src=\"%s\"></a>",
+						link, Robotframework.getLinkPath(thumbnail, logdir)));
+				return;
+			}
+		}
+		logging.html(String.format(
+				"</td></tr><tr><td colspan=\"3\"><a href=\"%s\"><img src=\"%s\" width=\"800px\"></a>", link, link));
+	}
+
+	/**
+	 * Writes a JPEG thumbnail of the screenshot next to it. Only the image
+	 * header is read here. Decoding and scaling is done in the background
+	 * together with the write, if enabled.
+	 * 
+	 * @return The thumbnail file, the screenshot itself if it is not wider
+	 *         than the thumbnail, or null if the screenshot can't be decoded.
+	 */
+	protected File writeThumbnail(File path, final byte[] png, final int width) {
+		int imageWidth;
+		try {
+			imageWidth = getImageWidth(png);
+		} catch (IOException e) {
+			logging.warn(String.format("Can't create thumbnail of screenshot '%s'", path.getAbsolutePath()));
+			return null;
+		}
+		if (imageWidth <= width) {
+			return path;
+		}
+
+		String name = path.getName();
+		int dot = name.lastIndexOf('.');
+		File thumbnailPath = new File(path.getParentFile(), String.format("%s-thumb-%d.jpg",
+				dot > 0 ? name.substring(0, dot) : name, width));
+		screenshotFiles.removeValue(thumbnailPath);
+		AsyncFileWriter asyncFileWriter = this.asyncFileWriter;
+		if (asyncFileWriter != null) {
+			try {
+				asyncFileWriter.write(thumbnailPath, new Callable<byte[]>() {
+
+					@Override
+					public byte[] call() throws IOException {
+						return scaleScreenshot(png, width);
+					}
+				});
+			} catch (IOException e) {
+				logging.warn(String.format("Can't write screenshot '%s'", thumbnailPath.getAbsolutePath()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logging.warn(String.format("Interrupted writing screenshot '%s'", thumbnailPath.getAbsolutePath()));
+			}
+			return thumbnailPath;
+		}
+
+		byte[] jpg;
+		try {
+			jpg = scaleScreenshot(png, width);
+		} catch (IOException e) {
+			logging.warn(String.format("Can't create thumbnail of screenshot '%s'", path.getAbsolutePath()));
+			return null;
+		}
+		writeScreenshot(thumbnailPath, jpg);
+		return thumbnailPath;
+	}
+
+	/**
+	 * Reads only the width from the header of the PNG.
+	 */
+	protected static int getImageWidth(byte[] png) throws IOException {
+		ImageReader reader = ImageIO.getImageReadersByFormatName("png").next();
+		ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(png));
+		try {
+			reader.setInput(input, true, true);
+			return reader.getWidth(0);
+		} finally {
+			reader.dispose();
+			input.close();
+		}
+	}
+
+	/**
+	 * Decodes the PNG and scales it down to a JPEG of the width. Does not log,
+	 * so it can be called from any thread.
+	 */
+	protected static byte[] scaleScreenshot(byte[] png, int width) throws IOException {
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+		if (image == null) {
+			throw new IOException("Unsupported image format");
+		}
+		int height = Math.max(1, image.getHeight() * width / image.getWidth());
+		BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = thumbnail.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+
+		ByteArrayOutputStream jpg = new ByteArrayOutputStream();
+		ImageIO.write(thumbnail, "jpg", jpg);
+		return jpg.toByteArray();
+	}
+
+	/**
+	 * Takes a screenshot cropped to the element or, if no element is given,
+	 * to the rectangle in page coordinates.
+	 */
+	protected void captureScreenshot(WebElement webElement, int x, int y, int width, int height, String filename) {
+		WebDriver webDriver = browserManagement.getCurrentWebDriver();
+		if (webDriver == null) {
+			logging.warn("Can't take screenshot. No open browser found");
+			return;
+		}
+		File logdir = logging.getLogDir();
+
+		// Fetch the geometry right before the screenshot, so it matches
+		List<?> geometry = (List<?>) ((JavascriptExecutor) webDriver).executeScript(GET_GEOMETRY_SCRIPT, webElement);
+		byte[] png = ((TakesScreenshot) webDriver).getScreenshotAs(OutputType.BYTES);
+
+		double scrollX = ((Number) geometry.get(4)).doubleValue();
+		double scrollY = ((Number) geometry.get(5)).doubleValue();
+		double viewportHeight = ((Number) geometry.get(7)).doubleValue();
+		double ratio = ((Number) geometry.get(8)).doubleValue();
+		double left = x;
+		double top = y;
+		double right = x + width;
+		double bottom = y + height;
+		if (webElement != null) {
+			left = ((Number) geometry.get(0)).doubleValue() + scrollX;
+			top = ((Number) geometry.get(1)).doubleValue() + scrollY;
+			right = left + ((Number) geometry.get(2)).doubleValue();
+			bottom = top + ((Number) geometry.get(3)).doubleValue();
+		}
+
+		byte[] cropped;
+		try {
+			cropped = cropScreenshot(png, left, top, right, bottom, scrollX, scrollY, viewportHeight, ratio);
+		} catch (IOException e) {
+			throw new Selenium2LibraryNonFatalException(String.format("Can't crop screenshot: %s", e.getMessage()));
+		}
+		if (cropped == null) {
+			throw new Selenium2LibraryNonFatalException("The region to capture is outside of the captured area.");
+		}
+		logScreenshot(logdir, filename, cropped);
+	}
+
+	/**
+	 * Decodes only the given rectangle of the screenshot and encodes it as
+	 * PNG. Some browsers capture the whole page, others only the viewport.
+	 * This is told apart by the height of the screenshot.
+	 * 
+	 * @return The cropped PNG or null, if the rectangle is outside of the
+	 *         screenshot.
+	 */
+	protected static byte[] cropScreenshot(byte[] png, double left, double top, double right, double bottom,
+			double scrollX, double scrollY, double viewportHeight, double ratio) throws IOException {
+		ImageReader reader = ImageIO.getImageReadersByFormatName("png").next();
+		ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(png));
+		try {
+			reader.setInput(input, true, true);
+			int imageWidth = reader.getWidth(0);
+			int imageHeight = reader.getHeight(0);
+			if (imageHeight <= Math.ceil(viewportHeight * ratio) + 1) {
+				// Only the viewport has been captured
+				left -= scrollX;
+				right -= scrollX;
+				top -= scrollY;
+				bottom -= scrollY;
+			}
+			int x0 = Math.max(0, (int) Math.floor(left * ratio));
+			int y0 = Math.max(0, (int) Math.floor(top * ratio));
+			int x1 = Math.min(imageWidth, (int) Math.ceil(right * ratio));
+			int y1 = Math.min(imageHeight, (int) Math.ceil(bottom * ratio));
+			if (x1 <= x0 || y1 <= y0) {
+				return null;
+			}
+
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(new Rectangle(x0, y0, x1 - x0, y1 - y0));
+			BufferedImage image = reader.read(0, param);
+			ByteArrayOutputStream cropped = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", cropped);
+			return cropped.toByteArray();
+		} finally {
+			reader.dispose();
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes the file in the background, if enabled, or at once. Forgets the
+	 * screenshots and thumbnails previously saved to the same file.
+	 */
+	protected void writeFile(File path, byte[] bytes) {
+		screenshotFiles.removeValue(path);
+		AsyncFileWriter asyncFileWriter = this.asyncFileWriter;
+		if (asyncFileWriter != null) {
+			writeScreenshotAsync(asyncFileWriter, path, bytes);
+		} else {
+			writeScreenshot(path, bytes);
+		}
+	}
+
+	/**
+	 * Writes the screenshots in the background, if not null
+	 */
+	protected volatile AsyncFileWriter asyncFileWriter;
+
+	/**
+	 * Waits until all screenshots queued so far are written.
+	 */
+	protected void flushScreenshots() {
+		AsyncFileWriter asyncFileWriter = this.asyncFileWriter;
+		if (asyncFileWriter == null) {
+			return;
+		}
+		try {
+			asyncFileWriter.flush();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void shutdownAsyncFileWriter(AsyncFileWriter asyncFileWriter) {
+		if (asyncFileWriter == null) {
+			return;
+		}
+		try {
+			asyncFileWriter.shutdown();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	protected void writeScreenshotAsync(AsyncFileWriter asyncFileWriter, File path, byte[] png) {
+		try {
+			asyncFileWriter.write(path, png);
+		} catch (IOException e) {
+			logging.warn(String.format("Can't write screenshot '%s'", path.getAbsolutePath()));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logging.warn(String.format("Interrupted writing screenshot '%s'", path.getAbsolutePath()));
+		}
+	}
+
 	protected void writeScreenshot(File path, byte[] png) {
 		FileOutputStream fos = null;
 		try {
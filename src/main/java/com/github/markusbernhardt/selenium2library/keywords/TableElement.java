@@ -1,8 +1,20 @@
 package com.github.markusbernhardt.selenium2library.keywords;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.openqa.selenium.By;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.robotframework.javalib.annotation.ArgumentNames;
 import org.robotframework.javalib.annotation.Autowired;
@@ -13,6 +25,8 @@ import org.robotframework.javalib.annotation.RobotKeywords;
 import com.github.markusbernhardt.selenium2library.RunOnFailureKeywordsAdapter;
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
 import com.github.markusbernhardt.selenium2library.locators.TableElementFinder;
+import com.github.markusbernhardt.selenium2library.locators.TableSnapshot;
+import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 
 @RobotKeywords
 public class TableElement extends RunOnFailureKeywordsAdapter {
@@ -29,6 +43,18 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@Autowired
 	protected Logging logging;
 
+	/**
+	 * Maximum number of distinct values counted per column by `Export Table`
+	 */
+	public final static int MAX_DISTINCT_VALUES = 10000;
+
+	/**
+	 * The last snapshots of the tables found by a locator by locator and
+	 * session id. Dropped when the browser is closed.
+	 */
+	protected final Map<String, Map<String, List<TableSnapshot>>> tableSnapshots =
+			new ConcurrentHashMap<String, Map<String, List<TableSnapshot>>>();
+
 	// ##############################
 	// Keywords
 	// ##############################
@@ -62,25 +88,11 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	@ArgumentNames({ "tableLocator", "row", "column", "logLevel=INFO" })
 	public String getTableCell(String tableLocator, int row, int column, String logLevel) {
-		int rowIndex = row - 1;
-		int columnIndex = column - 1;
-		WebElement table = TableElementFinder.find(browserManagement.getCurrentWebDriver(), tableLocator);
-		if (table != null) {
-			List<WebElement> rows = table.findElements(By.xpath("./thead/tr"));
-			if (rowIndex >= rows.size()) {
-				rows.addAll(table.findElements(By.xpath("./tbody/tr")));
-			}
-			if (rowIndex >= rows.size()) {
-				rows.addAll(table.findElements(By.xpath("./tfoot/tr")));
-			}
-			if (rowIndex < rows.size()) {
-				List<WebElement> columns = rows.get(rowIndex).findElements(By.tagName("th"));
-				if (columnIndex >= columns.size()) {
-					columns.addAll(rows.get(rowIndex).findElements(By.tagName("td")));
-				}
-				if (columnIndex < columns.size()) {
-					return columns.get(columnIndex).getText();
-				}
+		TableSnapshot snapshot = takeFirstSnapshot(tableLocator);
+		if (snapshot != null) {
+			String cell = snapshot.getCell(row, column);
+			if (cell != null) {
+				return cell;
 			}
 		}
 		logging.logSource(logLevel);
@@ -182,9 +194,14 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	@ArgumentNames({ "tableLocator", "col", "text", "logLevel=INFO" })
 	public void tableColumnShouldContain(String tableLocator, int col, String text, String logLevel) {
-		WebElement element = TableElementFinder.findByCol(browserManagement.getCurrentWebDriver(), tableLocator, col,
-				text);
-		if (element == null) {
+		boolean found = false;
+		for (TableSnapshot snapshot : takeSnapshots(tableLocator)) {
+			if (snapshot.columnContains(col, text)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
 			logging.logSource(logLevel);
 			throw new Selenium2LibraryNonFatalException(String.format(
 					"Column #%d in table identified by '%s' should have contained text '%s'.", col, tableLocator, text));
@@ -213,9 +230,14 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	@ArgumentNames({ "tableLocator", "text", "logLevel=INFO" })
 	public void tableFooterShouldContain(String tableLocator, String text, String logLevel) {
-		WebElement element = TableElementFinder.findByFooter(browserManagement.getCurrentWebDriver(), tableLocator,
-				text);
-		if (element == null) {
+		boolean found = false;
+		for (TableSnapshot snapshot : takeSnapshots(tableLocator)) {
+			if (snapshot.footerContains(text)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
 			logging.logSource(logLevel);
 			throw new Selenium2LibraryNonFatalException(String.format(
 					"Footer in table identified by '%s' should have contained text '%s'.", tableLocator, text));
@@ -244,9 +266,14 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	@ArgumentNames({ "tableLocator", "text", "logLevel=INFO" })
 	public void tableHeaderShouldContain(String tableLocator, String text, String logLevel) {
-		WebElement element = TableElementFinder.findByHeader(browserManagement.getCurrentWebDriver(), tableLocator,
-				text);
-		if (element == null) {
+		boolean found = false;
+		for (TableSnapshot snapshot : takeSnapshots(tableLocator)) {
+			if (snapshot.headerContains(text)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
 			logging.logSource(logLevel);
 			throw new Selenium2LibraryNonFatalException(String.format(
 					"Header in table identified by '%s' should have contained text '%s'.", tableLocator, text));
@@ -285,9 +312,14 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	@ArgumentNames({ "tableLocator", "row", "text", "logLevel=INFO" })
 	public void tableRowShouldContain(String tableLocator, int row, String text, String logLevel) {
-		WebElement element = TableElementFinder.findByRow(browserManagement.getCurrentWebDriver(), tableLocator, row,
-				text);
-		if (element == null) {
+		boolean found = false;
+		for (TableSnapshot snapshot : takeSnapshots(tableLocator)) {
+			if (snapshot.rowContains(row, text)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
 			logging.logSource(logLevel);
 			throw new Selenium2LibraryNonFatalException(String.format(
 					"Row #%d in table identified by '%s' should have contained text '%s'.", row, tableLocator, text));
@@ -316,13 +348,310 @@ public class TableElement extends RunOnFailureKeywordsAdapter {
 	@RobotKeyword
 	@ArgumentNames({ "tableLocator", "text", "logLevel=INFO" })
 	public void tableShouldContain(String tableLocator, String text, String logLevel) {
-		WebElement element = TableElementFinder.findByContent(browserManagement.getCurrentWebDriver(), tableLocator,
-				text);
-		if (element == null) {
+		boolean found = false;
+		for (TableSnapshot snapshot : takeSnapshots(tableLocator)) {
+			if (snapshot.contains(text)) {
+				found = true;
+				break;
+			}
+		}
+		if (!found) {
 			logging.logSource(logLevel);
 			throw new Selenium2LibraryNonFatalException(String.format(
 					"Table identified by '%s' should have contained text '%s'.", tableLocator, text));
 		}
 	}
 
+	@RobotKeywordOverload
+	public Map<String, Object> exportTable(String tableLocator) {
+		return exportTable(tableLocator, null);
+	}
+
+	@RobotKeywordOverload
+	public Map<String, Object> exportTable(String tableLocator, String filename) {
+		return exportTable(tableLocator, filename, "csv");
+	}
+
+	@RobotKeywordOverload
+	public Map<String, Object> exportTable(String tableLocator, String filename, String format) {
+		return exportTable(tableLocator, filename, format, 500);
+	}
+
+	/**
+	 * Writes the cell texts of the table identified by <b>tableLocator</b> to
+	 * a file in the log directory and returns statistics about the table.<br>
+	 * <br>
+	 * The rows are fetched from the browser in chunks of <b>chunkSize</b> rows
+	 * and written one chunk after the other, so even very large tables only
+	 * need little memory. Every row of the table including header, footer and
+	 * nested table rows is written as one line. Cells spanning multiple rows
+	 * or columns are written once. If the table changes while it is exported,
+	 * the file may contain an inconsistent mix of old and new rows.<br>
+	 * <br>
+	 * The file is written as comma separated values for the <b>format</b>
+	 * csv, or as tab separated values for the format tsv. If no filename is
+	 * given, the file is named selenium-table-&lt;counter&gt;.csv or .tsv. A
+	 * link to the file is logged.<br>
+	 * <br>
+	 * The returned statistics contain the number of rows (rows), the number of
+	 * cells (cells), the maximum number of cells in a row (columns), the
+	 * number of distinct values of every column (distinct) and the path of
+	 * the file (file). At most 10000 distinct values are counted per
+	 * column.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>${stats}=</td>
+	 * <td>Export Table</td>
+	 * <td>results</td>
+	 * <td>results.tsv</td>
+	 * <td>tsv</td>
+	 * </tr>
+	 * <tr>
+	 * <td>Should Be Equal As Integers</td>
+	 * <td>${stats['rows']}</td>
+	 * <td>1001</td>
+	 * <td></td>
+	 * <td></td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param tableLocator
+	 *            The locator to locate the table.
+	 * @param filename
+	 *            Default=NONE. Optional name of the file to write.
+	 * @param format
+	 *            Default=csv. Optional file format: csv or tsv.
+	 * @param chunkSize
+	 *            Default=500. Optional number of rows fetched at once. Must
+	 *            be at least 1.
+	 * @return The statistics by name.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "tableLocator", "filename=NONE", "format=csv", "chunkSize=500" })
+	public Map<String, Object> exportTable(String tableLocator, String filename, String format, int chunkSize) {
+		boolean tsv = format.equalsIgnoreCase("tsv");
+		if (!tsv && !format.equalsIgnoreCase("csv")) {
+			throw new Selenium2LibraryNonFatalException(String.format("Table export format %s is invalid.", format));
+		}
+		if (chunkSize < 1) {
+			throw new Selenium2LibraryNonFatalException(String.format("Table export chunk size %d is invalid.",
+					chunkSize));
+		}
+		WebDriver webDriver = browserManagement.getCurrentWebDriver();
+		WebElement table = TableElementFinder.find(webDriver, tableLocator);
+		if (table == null) {
+			throw new Selenium2LibraryNonFatalException(String.format("Table identified by '%s' could not be found.",
+					tableLocator));
+		}
+
+		File logdir = logging.getLogDir();
+		if (filename == null) {
+			exportIndex++;
+			filename = String.format("selenium-table-%d.%s", exportIndex, tsv ? "tsv" : "csv");
+		} else {
+			filename = filename.replace('/', File.separatorChar);
+		}
+		File path = new File(logdir, filename);
+
+		long rowCount = 0;
+		long cellCount = 0;
+		List<Set<String>> distinctValues = new ArrayList<Set<String>>();
+		Writer writer = null;
+		try {
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "UTF-8"));
+			int total = Integer.MAX_VALUE;
+			for (int offset = 0; offset < total; offset += chunkSize) {
+				List<TableSnapshot.Row> rows = new ArrayList<TableSnapshot.Row>();
+				total = TableSnapshot.fetchRows(webDriver, table, offset, chunkSize, rows);
+				for (TableSnapshot.Row row : rows) {
+					List<String> texts = row.getTexts();
+					for (int i = 0; i < texts.size(); i++) {
+						if (i != 0) {
+							writer.write(tsv ? '\t' : ',');
+						}
+						writer.write(tsv ? escapeTsv(texts.get(i)) : escapeCsv(texts.get(i)));
+						if (distinctValues.size() <= i) {
+							distinctValues.add(new HashSet<String>());
+						}
+						Set<String> values = distinctValues.get(i);
+						if (values.size() < MAX_DISTINCT_VALUES) {
+							values.add(texts.get(i));
+						}
+					}
+					writer.write("\r\n");
+					rowCount++;
+					cellCount += texts.size();
+				}
+				if (rows.size() == 0) {
+					break;
+				}
+			}
+			writer.close();
+			writer = null;
+		} catch (IOException e) {
+			throw new Selenium2LibraryNonFatalException(String.format("Can't write table export '%s': %s",
+					path.getAbsolutePath(), e.getMessage()));
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					logging.warn("Can't even close stream");
+				}
+			}
+		}
+
+		List<Long> distinct = new ArrayList<Long>();
+		for (Set<String> values : distinctValues) {
+			distinct.add((long) values.size());
+		}
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("rows", rowCount);
+		statistics.put("cells", cellCount);
+		statistics.put("columns", (long) distinctValues.size());
+		statistics.put("distinct", distinct);
+		statistics.put("file", path.getAbsolutePath());
+		logging.html(String.format("Exported table '%s' to <a href=\"%s\">%s</a>", tableLocator,
+				Robotframework.getLinkPath(path, logdir), path.getName()));
+		logging.info(String.format("Table export statistics: %s", statistics));
+		return statistics;
+	}
+
+	@RobotKeywordOverload
+	public void invalidateTableCache() {
+		invalidateTableCache(null);
+	}
+
+	/**
+	 * Drops the cached cell texts of the table identified by
+	 * <b>tableLocator</b> or of all tables of the current browser.<br>
+	 * <br>
+	 * The table keywords keep the cell texts of every table they read. Before
+	 * using them again, a fingerprint of the table made of the number of rows
+	 * and a hash of its text is compared in the browser. Only if it changed,
+	 * the cell texts are fetched again. The cache is cleared on navigation
+	 * keywords like `Go To` or `Click Link` and when selecting another frame
+	 * or window.<br>
+	 * <br>
+	 * Use this keyword, if a table changes in a way not visible in its text,
+	 * for example by hiding cells.<br>
+	 * 
+	 * @param tableLocator
+	 *            Default=NONE. Optional locator of the table to drop. By
+	 *            default all tables are dropped.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "tableLocator=NONE" })
+	public void invalidateTableCache(String tableLocator) {
+		String sessionId = browserManagement.getCurrentSessionId();
+		if (sessionId == null) {
+			return;
+		}
+		if (tableLocator == null) {
+			invalidateTableSnapshots(sessionId);
+			return;
+		}
+		Map<String, List<TableSnapshot>> snapshots = tableSnapshots.get(sessionId);
+		if (snapshots != null) {
+			snapshots.remove(tableLocator);
+		}
+	}
+
+	// ##############################
+	// Internal Methods
+	// ##############################
+
+	/**
+	 * Returns a snapshot of every table found by the locator. For every table
+	 * the cached snapshot is used, if the table did not change, or the texts
+	 * of all cells are fetched. The check and the fetch are done in one script
+	 * call per table.
+	 * 
+	 * @return The snapshots in document order, empty if no table was found.
+	 */
+	protected List<TableSnapshot> takeSnapshots(String tableLocator) {
+		WebDriver webDriver = browserManagement.getCurrentWebDriver();
+		String sessionId = browserManagement.getCurrentSessionId();
+		List<WebElement> tables = TableElementFinder.findAll(webDriver, tableLocator);
+		Map<String, List<TableSnapshot>> snapshots = getSessionSnapshots(sessionId);
+		List<TableSnapshot> previous = snapshots.get(tableLocator);
+		List<TableSnapshot> current = new ArrayList<TableSnapshot>();
+		for (int i = 0; i < tables.size(); i++) {
+			TableSnapshot snapshot = previous != null && i < previous.size() ? previous.get(i) : null;
+			current.add(TableSnapshot.takeIfChanged(webDriver, tables.get(i), snapshot));
+		}
+		if (current.size() == 0) {
+			snapshots.remove(tableLocator);
+		} else {
+			snapshots.put(tableLocator, current);
+		}
+		return current;
+	}
+
+	/**
+	 * Like {@link #takeSnapshots(String)}, but only for the first table found
+	 * by the locator. The other tables are neither looked up nor fetched.
+	 * 
+	 * @return The snapshot, or null if no table was found.
+	 */
+	protected TableSnapshot takeFirstSnapshot(String tableLocator) {
+		WebDriver webDriver = browserManagement.getCurrentWebDriver();
+		String sessionId = browserManagement.getCurrentSessionId();
+		WebElement table = TableElementFinder.find(webDriver, tableLocator);
+		Map<String, List<TableSnapshot>> snapshots = getSessionSnapshots(sessionId);
+		List<TableSnapshot> previous = snapshots.get(tableLocator);
+		if (table == null) {
+			snapshots.remove(tableLocator);
+			return null;
+		}
+		TableSnapshot first = previous != null ? previous.get(0) : null;
+		TableSnapshot snapshot = TableSnapshot.takeIfChanged(webDriver, table, first);
+		if (snapshot != first) {
+			List<TableSnapshot> current = new ArrayList<TableSnapshot>();
+			current.add(snapshot);
+			if (previous != null) {
+				current.addAll(previous.subList(1, previous.size()));
+			}
+			snapshots.put(tableLocator, current);
+		}
+		return snapshot;
+	}
+
+	protected Map<String, List<TableSnapshot>> getSessionSnapshots(String sessionId) {
+		synchronized (tableSnapshots) {
+			Map<String, List<TableSnapshot>> snapshots = tableSnapshots.get(sessionId);
+			if (snapshots == null) {
+				snapshots = new ConcurrentHashMap<String, List<TableSnapshot>>();
+				tableSnapshots.put(sessionId, snapshots);
+			}
+			return snapshots;
+		}
+	}
+
+	protected int exportIndex = 0;
+
+	protected static String escapeCsv(String text) {
+		if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+			return text;
+		}
+		return '"' + text.replace("\"", "\"\"") + '"';
+	}
+
+	protected static String escapeTsv(String text) {
+		return text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+	}
+
+	/**
+	 * Drops the snapshots of the browser with the session id, or of all
+	 * browsers if null.
+	 */
+	protected void invalidateTableSnapshots(String sessionId) {
+		if (sessionId != null) {
+			tableSnapshots.remove(sessionId);
+		} else {
+			tableSnapshots.clear();
+		}
+	}
 }
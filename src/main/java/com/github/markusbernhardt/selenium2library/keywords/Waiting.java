@@ -1,6 +1,16 @@
 package com.github.markusbernhardt.selenium2library.keywords;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriverException;
 import org.robotframework.javalib.annotation.ArgumentNames;
 import org.robotframework.javalib.annotation.Autowired;
 import org.robotframework.javalib.annotation.RobotKeyword;
@@ -9,6 +19,10 @@ import org.robotframework.javalib.annotation.RobotKeywords;
 
 import com.github.markusbernhardt.selenium2library.RunOnFailureKeywordsAdapter;
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
+import com.github.markusbernhardt.selenium2library.locators.ElementFinder;
+import com.github.markusbernhardt.selenium2library.utils.LatencyHistogram;
+import com.github.markusbernhardt.selenium2library.utils.PollStrategy;
+import com.github.markusbernhardt.selenium2library.utils.Python;
 import com.github.markusbernhardt.selenium2library.utils.Robotframework;
 
 @RobotKeywords
@@ -26,6 +40,202 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 	@Autowired
 	protected Element element;
 
+	/**
+	 * Instantiated Logging keyword bean
+	 */
+	@Autowired
+	protected Logging logging;
+
+	/**
+	 * The poll strategy used by all wait keywords without an own poll strategy
+	 */
+	protected volatile PollStrategy pollStrategy = PollStrategy.ADAPTIVE;
+
+	/**
+	 * Poll strategies of single wait keywords by normalized keyword name
+	 */
+	protected final Map<String, PollStrategy> keywordPollStrategies = new ConcurrentHashMap<String, PollStrategy>();
+
+	/**
+	 * Wait latencies by keyword name
+	 */
+	protected final ConcurrentHashMap<String, LatencyHistogram> waitStatistics =
+			new ConcurrentHashMap<String, LatencyHistogram>();
+
+	/**
+	 * Wait inside the browser for the conditions, which support it
+	 */
+	protected volatile boolean eventDrivenWaits = false;
+
+	/**
+	 * Wait until the page is ready after going to a URL, clicking an element
+	 * and submitting a form
+	 */
+	protected volatile boolean pageReadyWait = false;
+
+	/**
+	 * Timeout of the automatic page ready wait. null means the library
+	 * timeout.
+	 */
+	protected volatile String pageReadyTimeout;
+
+	/**
+	 * Installs a counter of pending XMLHttpRequest and fetch calls on first
+	 * use and returns why the page is not ready yet, or an empty string if it
+	 * is ready. Checks the document ready state, the pending requests, jQuery,
+	 * Angular and AngularJS, and running finite animations.
+	 */
+	protected final static String PAGE_READY_SCRIPT = "var w = window, state = w.__selenium2library_ready;\n"
+			+ "if (!state) {\n"
+			+ "  state = w.__selenium2library_ready = { pending: 0 };\n"
+			+ "  if (w.XMLHttpRequest && w.XMLHttpRequest.prototype.addEventListener) {\n"
+			+ "    var proto = w.XMLHttpRequest.prototype, send = proto.send;\n"
+			+ "    proto.send = function() {\n"
+			+ "      var done = false;\n"
+			+ "      var finish = function() { if (!done) { done = true; state.pending--; } };\n"
+			+ "      state.pending++;\n"
+			+ "      this.addEventListener('loadend', finish);\n"
+			+ "      try { return send.apply(this, arguments); } catch (e) { finish(); throw e; }\n"
+			+ "    };\n"
+			+ "  }\n"
+			+ "  if (w.fetch) {\n"
+			+ "    var fetch = w.fetch;\n"
+			+ "    w.fetch = function() {\n"
+			+ "      var finish = function() { state.pending--; };\n"
+			+ "      state.pending++;\n"
+			+ "      try { var promise = fetch.apply(this, arguments); } catch (e) { finish(); throw e; }\n"
+			+ "      promise.then(finish, finish);\n"
+			+ "      return promise;\n"
+			+ "    };\n"
+			+ "  }\n"
+			+ "}\n"
+			+ "var reasons = [];\n"
+			+ "if (w.__selenium2library_unloading) { reasons.push('navigation is pending'); }\n"
+			+ "if (document.readyState != 'complete') { reasons.push('document is ' + document.readyState); }\n"
+			+ "if (state.pending > 0) { reasons.push(state.pending + ' pending requests'); }\n"
+			+ "if (w.jQuery && w.jQuery.active > 0) { reasons.push(w.jQuery.active + ' pending jQuery requests'); }\n"
+			+ "try {\n"
+			+ "  if (w.getAllAngularTestabilities) {\n"
+			+ "    var testabilities = w.getAllAngularTestabilities();\n"
+			+ "    for (var i = 0; i < testabilities.length; i++) {\n"
+			+ "      if (!testabilities[i].isStable()) { reasons.push('Angular is not stable'); break; }\n"
+			+ "    }\n"
+			+ "  } else if (w.angular && w.angular.element && document.body) {\n"
+			+ "    var injector = w.angular.element(document.body).injector();\n"
+			+ "    if (injector && injector.get('$http').pendingRequests.length > 0) {\n"
+			+ "      reasons.push('pending AngularJS requests');\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "} catch (e) {\n"
+			+ "}\n"
+			+ "if (document.getAnimations) {\n"
+			+ "  var animations = document.getAnimations();\n"
+			+ "  for (var i = 0; i < animations.length; i++) {\n"
+			+ "    var effect = animations[i].effect;\n"
+			+ "    if (animations[i].playState == 'running' && effect && effect.getComputedTiming\n"
+			+ "        && effect.getComputedTiming().endTime !== Infinity) {\n"
+			+ "      reasons.push('animations are running');\n"
+			+ "      break;\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "}\n"
+			+ "return reasons.join(', ');";
+
+	/**
+	 * Marks the current page, so that {@link #PAGE_READY_SCRIPT} reports it as
+	 * not ready, once it is about to be unloaded. Run before an action, which
+	 * may navigate, so that the old page is not taken as ready.
+	 */
+	protected final static String MARK_PAGE_SCRIPT = "var w = window;\n"
+			+ "if (w.__selenium2library_unloading === undefined && w.addEventListener) {\n"
+			+ "  var unload = function() { w.__selenium2library_unloading = true; };\n"
+			+ "  w.addEventListener('beforeunload', unload);\n"
+			+ "  w.addEventListener('pagehide', unload);\n"
+			+ "}\n"
+			+ "w.__selenium2library_unloading = false;";
+
+	/**
+	 * Defines the function <code>checkCondition(kind, argument)</code>, which
+	 * evaluates a condition inside the browser. The kind is text, title,
+	 * javascript, element or visible. For element and visible the argument is
+	 * a pair of type (xpath, css or tag) and query. Returns null if the
+	 * condition could not be evaluated. This includes text conditions on pages
+	 * with frames, whose text and mutations are not visible to the script.
+	 */
+	protected final static String CHECK_CONDITION_SCRIPT = "function checkCondition(kind, argument) {\n"
+			+ "  try {\n"
+			+ "    if (kind == 'text') {\n"
+			+ "      if (document.getElementsByTagName('frame').length\n"
+			+ "          || document.getElementsByTagName('iframe').length) { return null; }\n"
+			+ "      var root = document.documentElement;\n"
+			+ "      return (root ? root.textContent : '').indexOf(argument) >= 0;\n"
+			+ "    }\n"
+			+ "    if (kind == 'title') { return document.title.indexOf(argument) >= 0; }\n"
+			+ "    if (kind == 'javascript') { return new Function(argument)() === true; }\n"
+			+ "    var type = argument[0], query = argument[1], node;\n"
+			+ "    if (type == 'xpath') {\n"
+			+ "      node = document.evaluate(query, document, null, 9, null).singleNodeValue;\n"
+			+ "    } else {\n"
+			+ "      node = type == 'css' ? document.querySelector(query) : document.getElementsByTagName(query)[0];\n"
+			+ "    }\n"
+			+ "    if (kind == 'element' || !node) { return !!node; }\n"
+			+ "    for (var e = node; e && e.nodeType == 1; e = e.parentNode) {\n"
+			+ "      var style = window.getComputedStyle(e, null);\n"
+			+ "      if (style.display == 'none' || (e == node && style.visibility == 'hidden')) { return false; }\n"
+			+ "    }\n"
+			+ "    return node.offsetWidth > 0 || node.offsetHeight > 0 || node.getClientRects().length > 0;\n"
+			+ "  } catch (err) {\n"
+			+ "    return null;\n"
+			+ "  }\n"
+			+ "}\n";
+
+	/**
+	 * Waits asynchronously until the condition of kind <code>arguments[0]</code>
+	 * with the argument <code>arguments[1]</code> evaluates to
+	 * <code>arguments[2]</code>, or <code>arguments[3]</code> milliseconds
+	 * have passed. The condition is checked on every DOM mutation, and for
+	 * visibility additionally on every animation frame. Calls back with the
+	 * last result, or with null if the browser does not support
+	 * MutationObserver or the condition can not be evaluated.
+	 */
+	protected final static String WAIT_IN_BROWSER_SCRIPT = CHECK_CONDITION_SCRIPT
+			+ "var kind = arguments[0], argument = arguments[1];\n"
+			+ "var expected = arguments[2], timeout = arguments[3], callback = arguments[arguments.length - 1];\n"
+			+ "var Observer = window.MutationObserver || window.WebKitMutationObserver;\n"
+			+ "if (!Observer) { callback(null); return; }\n"
+			+ "function check() { return checkCondition(kind, argument) === expected; }\n"
+			+ "var first = checkCondition(kind, argument);\n"
+			+ "if (first === null) { callback(null); return; }\n"
+			+ "if (first === expected) { callback(true); return; }\n"
+			+ "var done = false, observer, timer, frame;\n"
+			+ "function finish(result) {\n"
+			+ "  if (done) { return; }\n"
+			+ "  done = true;\n"
+			+ "  observer.disconnect();\n"
+			+ "  clearTimeout(timer);\n"
+			+ "  if (frame && window.cancelAnimationFrame) { window.cancelAnimationFrame(frame); }\n"
+			+ "  callback(result);\n"
+			+ "}\n"
+			+ "function poll() { if (check()) { finish(true); } }\n"
+			+ "observer = new Observer(poll);\n"
+			+ "observer.observe(document, { childList: true, subtree: true, attributes: true, characterData: true });\n"
+			+ "if (kind == 'visible' && window.requestAnimationFrame) {\n"
+			+ "  var tick = function() { poll(); if (!done) { frame = window.requestAnimationFrame(tick); } };\n"
+			+ "  frame = window.requestAnimationFrame(tick);\n"
+			+ "}\n"
+			+ "timer = setTimeout(function() { finish(check()); }, timeout);";
+
+	/**
+	 * Evaluates the conditions in <code>arguments[0]</code>, each a pair of
+	 * kind and argument, and returns a list of results.
+	 */
+	protected final static String CHECK_CONDITIONS_SCRIPT = CHECK_CONDITION_SCRIPT
+			+ "var conditions = arguments[0], results = [];\n"
+			+ "for (var i = 0; i < conditions.length; i++) {\n"
+			+ "  results.push(checkCondition(conditions[i][0], conditions[i][1]));\n"
+			+ "}\n"
+			+ "return results;";
+
 	// ##############################
 	// Keywords
 	// ##############################
@@ -69,7 +279,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Condition '%s' did not become true in <TIMEOUT>", condition);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait For Condition", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -109,7 +319,8 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Text '%s' did not appear in <TIMEOUT>", text);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		BrowserCondition condition = textCondition(text, true);
+		waitUntil("Wait Until Page Contains", timeout, message, condition, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -144,17 +355,8 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 	 */
 	@RobotKeyword
 	@ArgumentNames({ "text", "timeout=NONE", "message=NONE" })
-	public void waitUntilPageNotContains(final String text, String timeout, String message) {
-		if (message == null) {
-			message = String.format("Text '%s' did not disappear in <TIMEOUT>", text);
-		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
-
-			@Override
-			public boolean isFinished() {
-				return !element.isTextPresent(text);
-			}
-		});
+	public void waitUntilPageNotContains(String text, String timeout, String message) {
+		waitUntilTextDisappears("Wait Until Page Not Contains", text, timeout, message);
 	}
 
 	@RobotKeywordOverload
@@ -183,8 +385,22 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 	 */
 	@RobotKeyword
 	@ArgumentNames({ "text", "timeout=NONE", "message=NONE" })
-	public void waitUntilPageDoesNotContain(final String text, String timeout, String message) {
-		waitUntilPageNotContains(text, timeout, message);
+	public void waitUntilPageDoesNotContain(String text, String timeout, String message) {
+		waitUntilTextDisappears("Wait Until Page Does Not Contain", text, timeout, message);
+	}
+
+	protected void waitUntilTextDisappears(String keyword, final String text, String timeout, String message) {
+		if (message == null) {
+			message = String.format("Text '%s' did not disappear in <TIMEOUT>", text);
+		}
+		BrowserCondition condition = textCondition(text, false);
+		waitUntil(keyword, timeout, message, condition, new WaitUntilFunction() {
+
+			@Override
+			public boolean isFinished() {
+				return !element.isTextPresent(text);
+			}
+		});
 	}
 
 	@RobotKeywordOverload
@@ -218,7 +434,8 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' did not appear in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		BrowserCondition condition = locatorCondition("element", locator, true);
+		waitUntil("Wait Until Page Contains Element", timeout, message, condition, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -254,17 +471,8 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 	 */
 	@RobotKeyword
 	@ArgumentNames({ "locator", "timeout=NONE", "message=NONE" })
-	public void waitUntilPageNotContainsElement(final String locator, String timeout, String message) {
-		if (message == null) {
-			message = String.format("Element '%s' did not disappear in <TIMEOUT>", locator);
-		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
-
-			@Override
-			public boolean isFinished() {
-				return !element.isElementPresent(locator);
-			}
-		});
+	public void waitUntilPageNotContainsElement(String locator, String timeout, String message) {
+		waitUntilElementDisappears("Wait Until Page Not Contains Element", locator, timeout, message);
 	}
 
 	@RobotKeywordOverload
@@ -294,8 +502,22 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 	 */
 	@RobotKeyword
 	@ArgumentNames({ "locator", "timeout=NONE", "message=NONE" })
-	public void waitUntilPageDoesNotContainElement(final String locator, String timeout, String message) {
-	    waitUntilPageNotContainsElement(locator, timeout, message);
+	public void waitUntilPageDoesNotContainElement(String locator, String timeout, String message) {
+		waitUntilElementDisappears("Wait Until Page Does Not Contain Element", locator, timeout, message);
+	}
+
+	protected void waitUntilElementDisappears(String keyword, final String locator, String timeout, String message) {
+		if (message == null) {
+			message = String.format("Element '%s' did not disappear in <TIMEOUT>", locator);
+		}
+		BrowserCondition condition = locatorCondition("element", locator, false);
+		waitUntil(keyword, timeout, message, condition, new WaitUntilFunction() {
+
+			@Override
+			public boolean isFinished() {
+				return !element.isElementPresent(locator);
+			}
+		});
 	}
 
 	@RobotKeywordOverload
@@ -328,7 +550,8 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' not visible in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		BrowserCondition condition = locatorCondition("visible", locator, true);
+		waitUntil("Wait Until Element Is Visible", timeout, message, condition, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -367,7 +590,8 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' still visible in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		BrowserCondition condition = locatorCondition("visible", locator, false);
+		waitUntil("Wait Until Element Is Not Visible", timeout, message, condition, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -406,7 +630,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' not clickable in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Element Is Clickable", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -445,7 +669,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' still clickable in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Element Is Not Clickable", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -485,7 +709,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' not successfully clicked in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Element Is Successfully Clicked", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -525,7 +749,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' not selected in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Element Is Selected", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -564,7 +788,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Element '%s' still selected in <TIMEOUT>", locator);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Element Is Not Selected", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -602,7 +826,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Title '%s' did not appear in <TIMEOUT>", title);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Title Contains", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -641,7 +865,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Title '%s' did not appear in <TIMEOUT>", title);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Title Not Contains", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -680,7 +904,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Title '%s' did not appear in <TIMEOUT>", title);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Title Is", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -719,7 +943,7 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		if (message == null) {
 			message = String.format("Title '%s' did not appear in <TIMEOUT>", title);
 		}
-		waitUntil(timeout, message, new WaitUntilFunction() {
+		waitUntil("Wait Until Title Is Not", timeout, message, new WaitUntilFunction() {
 
 			@Override
 			public boolean isFinished() {
@@ -729,31 +953,717 @@ public class Waiting extends RunOnFailureKeywordsAdapter {
 		});
 	}
 
+	/**
+	 * Waits until all or any of the given <b>conditions</b> are met.<br>
+	 * <br>
+	 * The <b>operator</b> is either <b>AND</b>, to wait until all conditions
+	 * are met, or <b>OR</b>, to wait until at least one condition is met. All
+	 * conditions are checked together in every poll, under one shared
+	 * <b>timeout</b>. Use <b>NONE</b> for the default timeout.<br>
+	 * <br>
+	 * Every condition has the form <i>kind:argument</i>. The kind can be
+	 * prefixed with <b>not</b> to negate the condition. Supported are:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td><b>Kind</b></td>
+	 * <td><b>Met if</b></td>
+	 * <td><b>Example</b></td>
+	 * </tr>
+	 * <tr>
+	 * <td>element</td>
+	 * <td>the locator finds an element</td>
+	 * <td>element:id=grid</td>
+	 * </tr>
+	 * <tr>
+	 * <td>visible</td>
+	 * <td>the first element found by the locator is visible</td>
+	 * <td>not visible:css=.spinner</td>
+	 * </tr>
+	 * <tr>
+	 * <td>text</td>
+	 * <td>the current page contains the text</td>
+	 * <td>text:Welcome</td>
+	 * </tr>
+	 * <tr>
+	 * <td>title</td>
+	 * <td>the page title contains the text</td>
+	 * <td>title:Orders</td>
+	 * </tr>
+	 * <tr>
+	 * <td>javascript</td>
+	 * <td>the JavaScript code returns true</td>
+	 * <td>javascript:return window.ready</td>
+	 * </tr>
+	 * </table>
+	 * <br>
+	 * Conditions using the default, identifier, id, name, xpath, css or tag
+	 * strategy, and all text, title and JavaScript conditions, are evaluated
+	 * with a single JavaScript execution per poll. Visibility is then judged
+	 * by the element's computed style and size. Conditions using other
+	 * locator strategies, and text conditions on pages with frames, are
+	 * checked one by one.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>Wait Until Conditions</td>
+	 * <td>AND</td>
+	 * <td>10s</td>
+	 * <td>not visible:css=.spinner</td>
+	 * <td>element:xpath=//table[@id='grid']//tr</td>
+	 * <td>title:Orders</td>
+	 * </tr>
+	 * </table>
+	 * <br>
+	 * See `Introduction` for details about locators and timeouts.<br>
+	 * 
+	 * @param operator
+	 *            Either AND or OR.
+	 * @param timeout
+	 *            The timeout interval or NONE.
+	 * @param conditions
+	 *            The conditions to wait for.
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "operator", "timeout", "*conditions" })
+	public void waitUntilConditions(String operator, String timeout, String... conditions) {
+		final boolean all;
+		if (operator.equalsIgnoreCase("AND")) {
+			all = true;
+		} else if (operator.equalsIgnoreCase("OR")) {
+			all = false;
+		} else {
+			throw new Selenium2LibraryNonFatalException(String.format("Unknown operator: %s", operator));
+		}
+		if (conditions.length == 0) {
+			throw new Selenium2LibraryNonFatalException("At least one condition is required.");
+		}
+		if (timeout != null && (timeout.length() == 0 || timeout.equalsIgnoreCase("NONE"))) {
+			timeout = null;
+		}
+
+		final List<WaitCondition> waitConditions = new ArrayList<WaitCondition>();
+		final List<List<Object>> scriptConditions = new ArrayList<List<Object>>();
+		List<String> quotedConditions = new ArrayList<String>();
+		for (String condition : conditions) {
+			WaitCondition waitCondition = parseWaitCondition(condition);
+			waitConditions.add(waitCondition);
+			if (waitCondition.scriptArgument != null) {
+				List<Object> scriptCondition = new ArrayList<Object>();
+				scriptCondition.add(waitCondition.kind);
+				scriptCondition.add(waitCondition.scriptArgument);
+				scriptConditions.add(scriptCondition);
+			}
+			quotedConditions.add(String.format("'%s'", condition));
+		}
+		String message = String.format("Conditions %s not met in <TIMEOUT>",
+				Python.join(all ? " AND " : " OR ", quotedConditions));
+		waitUntil("Wait Until Conditions", timeout, message, new WaitUntilFunction() {
+
+			@Override
+			public boolean isFinished() {
+				return areConditionsMet(waitConditions, scriptConditions, all);
+			}
+		});
+	}
+
+	@RobotKeywordOverload
+	public void waitUntilPageIsReady() {
+		waitUntilPageIsReady(null);
+	}
+
+	@RobotKeywordOverload
+	public void waitUntilPageIsReady(String timeout) {
+		waitUntilPageIsReady(timeout, null);
+	}
+
+	/**
+	 * Waits until the current page is ready.<br>
+	 * <br>
+	 * The page is ready, when
+	 * <ul>
+	 * <li>the document is completely loaded,</li>
+	 * <li>no XMLHttpRequest or fetch calls are pending,</li>
+	 * <li>jQuery has no active requests,</li>
+	 * <li>Angular is stable and AngularJS has no pending requests and</li>
+	 * <li>no finite animations are running.</li>
+	 * </ul>
+	 * Pending requests are counted by a probe, which is installed into the
+	 * page by the first check. Requests started before are not counted, but
+	 * jQuery and Angular track their own requests.<br>
+	 * <br>
+	 * Fails, if the timeout expires, before the page is ready.<br>
+	 * <br>
+	 * See `Introduction` for details about timeouts.<br>
+	 * 
+	 * @param timeout
+	 *            Default=NONE. Optional timeout interval.
+	 * @param message
+	 *            Default=NONE. Optional custom error message.
+	 * 
+	 * @see Waiting#enablePageReadyWait
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "timeout=NONE", "message=NONE" })
+	public void waitUntilPageIsReady(String timeout, String message) {
+		waitForPageReady(timeout, message);
+	}
+
+	protected void waitForPageReady(String timeout, String message) {
+		boolean customMessage = message != null;
+		if (message == null) {
+			message = "Page was not ready in <TIMEOUT>";
+		}
+		final String[] reasons = new String[1];
+		try {
+			waitUntil("Wait Until Page Is Ready", timeout, message, new WaitUntilFunction() {
+
+				@Override
+				public boolean isFinished() {
+					Object result = ((JavascriptExecutor) browserManagement.getCurrentWebDriver())
+							.executeScript(PAGE_READY_SCRIPT);
+					reasons[0] = result != null ? result.toString() : null;
+					return reasons[0] != null && reasons[0].length() == 0;
+				}
+			});
+		} catch (Selenium2LibraryNonFatalException e) {
+			if (customMessage || reasons[0] == null || reasons[0].length() == 0) {
+				throw e;
+			}
+			throw new Selenium2LibraryNonFatalException(String.format("%s: %s", e.getMessage(), reasons[0]));
+		}
+	}
+
+	@RobotKeywordOverload
+	public void enablePageReadyWait() {
+		enablePageReadyWait(null);
+	}
+
+	/**
+	 * Makes `Go To`, `Click Element` and `Submit Form` wait until the page is
+	 * ready afterwards.<br>
+	 * <br>
+	 * See `Wait Until Page Is Ready` for when a page is ready. If the page is
+	 * not ready within the <b>timeout</b>, a warning is logged and the test
+	 * continues.<br>
+	 * <br>
+	 * Before clicking or submitting, the current page is marked. Once the
+	 * browser is about to leave it, it is no longer taken as ready, so the
+	 * wait does not finish on the old page before the new one is loaded. A
+	 * click on a download link, which lets the browser announce leaving the
+	 * page but stay on it, therefore waits until the timeout.<br>
+	 * 
+	 * @param timeout
+	 *            Default=NONE. Optional timeout interval.
+	 * 
+	 * @see Waiting#disablePageReadyWait
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "timeout=NONE" })
+	public void enablePageReadyWait(String timeout) {
+		pageReadyTimeout = timeout;
+		pageReadyWait = true;
+	}
+
+	/**
+	 * Stops waiting until the page is ready after `Go To`, `Click Element` and
+	 * `Submit Form`.<br>
+	 * 
+	 * @see Waiting#enablePageReadyWait
+	 */
+	@RobotKeyword
+	public void disablePageReadyWait() {
+		pageReadyWait = false;
+	}
+
+	// ##############################
+	// Keywords - Poll Strategy
+	// ##############################
+
+	@RobotKeywordOverload
+	public String getSeleniumPollStrategy() {
+		return getSeleniumPollStrategy(null);
+	}
+
+	/**
+	 * Returns the poll strategy used by the wait keywords.<br>
+	 * <br>
+	 * If <b>keyword</b> is given, the poll strategy used by that wait keyword
+	 * is returned.<br>
+	 * 
+	 * @param keyword
+	 *            Default=NONE. Optional name of a wait keyword.
+	 * @return The poll strategy.
+	 * 
+	 * @see Waiting#setSeleniumPollStrategy
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "keyword=NONE" })
+	public String getSeleniumPollStrategy(String keyword) {
+		return getPollStrategy(keyword).toString();
+	}
+
+	@RobotKeywordOverload
+	public String setSeleniumPollStrategy(String strategy) {
+		return setSeleniumPollStrategy(strategy, null);
+	}
+
+	/**
+	 * Sets and returns the poll strategy used by the wait keywords.<br>
+	 * <br>
+	 * The wait keywords check their condition repeatedly until it holds or
+	 * the timeout expires. The poll strategy decides how long to sleep
+	 * between two checks. The <b>strategy</b> is one of:
+	 * <ul>
+	 * <li><b>adaptive</b>: The default. Checks four times every 50
+	 * milliseconds, then backs off by factor 1.5 up to one check per second.
+	 * Every interval is varied randomly by up to 10%.</li>
+	 * <li><b>fixed</b>: Checks every 200 milliseconds.</li>
+	 * <li>A single time string like <b>100ms</b>: Checks at this fixed
+	 * interval.</li>
+	 * <li>A comma separated list of the settings <b>initial</b>, <b>fast</b>,
+	 * <b>factor</b>, <b>max</b> and <b>jitter</b>. Settings not given are taken
+	 * from the adaptive strategy.</li>
+	 * </ul>
+	 * If <b>keyword</b> is given, the poll strategy is only set for that wait
+	 * keyword. Fails, if <b>keyword</b> is not the name of a wait keyword of
+	 * this library. Setting the <b>strategy</b> of a keyword to <b>NONE</b> makes
+	 * it use the library wide strategy again.<br>
+	 * <br>
+	 * The previous poll strategy is returned and can be used to set the old
+	 * value back later.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>${orig strategy} =</td>
+	 * <td>Set Selenium Poll Strategy</td>
+	 * <td>initial=20ms, fast=10, max=2s</td>
+	 * <td></td>
+	 * </tr>
+	 * <tr>
+	 * <td>Set Selenium Poll Strategy</td>
+	 * <td>1s</td>
+	 * <td>Wait Until Page Contains</td>
+	 * <td></td>
+	 * </tr>
+	 * <tr>
+	 * <td>Set Selenium Poll Strategy</td>
+	 * <td>${orig strategy}</td>
+	 * <td></td>
+	 * <td></td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param strategy
+	 *            The poll strategy.
+	 * @param keyword
+	 *            Default=NONE. Optional name of a wait keyword.
+	 * @return The previous poll strategy.
+	 * 
+	 * @see Waiting#getSeleniumPollStrategy
+	 * @see Waiting#getWaitStatistics
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "strategy", "keyword=NONE" })
+	public String setSeleniumPollStrategy(String strategy, String keyword) {
+		String oldStrategy = getSeleniumPollStrategy(keyword);
+		if (keyword == null) {
+			pollStrategy = PollStrategy.parse(strategy);
+		} else if (!isWaitKeyword(keyword)) {
+			throw new Selenium2LibraryNonFatalException(String.format("'%s' is not a wait keyword.", keyword));
+		} else if (strategy == null || strategy.equalsIgnoreCase("NONE")) {
+			keywordPollStrategies.remove(normalizeKeyword(keyword));
+		} else {
+			keywordPollStrategies.put(normalizeKeyword(keyword), PollStrategy.parse(strategy));
+		}
+		return oldStrategy;
+	}
+
+	/**
+	 * Logs and returns the latencies of all wait keywords executed so far.<br>
+	 * <br>
+	 * For every wait keyword the number of calls, failed calls and polls, the
+	 * average latency and a histogram of the latencies is reported.<br>
+	 * 
+	 * @return The wait statistics.
+	 * 
+	 * @see Waiting#setSeleniumPollStrategy
+	 */
+	@RobotKeyword
+	public String getWaitStatistics() {
+		StringBuilder sb = new StringBuilder();
+		for (Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(waitStatistics)
+				.entrySet()) {
+			if (sb.length() > 0) {
+				sb.append('\n');
+			}
+			sb.append(entry.getKey());
+			sb.append(": ");
+			sb.append(entry.getValue().format());
+		}
+		String statistics = sb.toString();
+		logging.info(statistics);
+		return statistics;
+	}
+
+	/**
+	 * Returns the wait mode used by the wait keywords.<br>
+	 * 
+	 * @return The wait mode.
+	 * 
+	 * @see Waiting#setSeleniumWaitMode
+	 */
+	@RobotKeyword
+	public String getSeleniumWaitMode() {
+		return eventDrivenWaits ? "event" : "poll";
+	}
+
+	/**
+	 * Sets and returns the wait mode used by the wait keywords.<br>
+	 * <br>
+	 * In the default mode <b>poll</b> the wait keywords check their condition
+	 * from the library, as often as the poll strategy demands. In the mode
+	 * <b>event</b> the keywords `Wait Until Page Contains`, `Wait Until Page
+	 * Not Contains`, `Wait Until Page Contains Element`, `Wait Until Page Not
+	 * Contains Element`, `Wait Until Element Is Visible` and `Wait Until
+	 * Element Is Not Visible` wait inside the browser instead. The condition
+	 * is checked whenever the page changes, and the browser reports back as
+	 * soon as the condition holds. Every such report is verified by the
+	 * library once more.<br>
+	 * <br>
+	 * Waiting inside the browser requires asynchronous JavaScript and
+	 * MutationObserver support. It is not available for the dom, jquery and
+	 * sizzle strategies, custom location strategies and chained locators.
+	 * In these cases the keywords poll as usual.<br>
+	 * <br>
+	 * The previous wait mode is returned and can be used to set the old value
+	 * back later.<br>
+	 * <br>
+	 * Example:
+	 * <table border="1" cellspacing="0" summary="">
+	 * <tr>
+	 * <td>${orig mode} =</td>
+	 * <td>Set Selenium Wait Mode</td>
+	 * <td>event</td>
+	 * </tr>
+	 * </table>
+	 * 
+	 * @param mode
+	 *            The wait mode, either poll or event.
+	 * @return The previous wait mode.
+	 * 
+	 * @see Waiting#setSeleniumPollStrategy
+	 */
+	@RobotKeyword
+	@ArgumentNames({ "mode" })
+	public String setSeleniumWaitMode(String mode) {
+		String oldMode = getSeleniumWaitMode();
+		if (mode.equalsIgnoreCase("event")) {
+			eventDrivenWaits = true;
+		} else if (mode.equalsIgnoreCase("poll")) {
+			eventDrivenWaits = false;
+		} else {
+			throw new Selenium2LibraryNonFatalException(String.format("Unknown wait mode: %s", mode));
+		}
+		return oldMode;
+	}
+
 	// ##############################
 	// Internal Methods
 	// ##############################
 
-	protected void waitUntil(String timestr, String message, WaitUntilFunction function) {
+	protected void waitUntil(String keyword, String timestr, String message, WaitUntilFunction function) {
+		waitUntil(keyword, timestr, message, null, function);
+	}
+
+	protected void waitUntil(String keyword, String timestr, String message, BrowserCondition condition,
+			WaitUntilFunction function) {
 		double timeout = timestr != null ? Robotframework.timestrToSecs(timestr) : browserManagement.getTimeout();
 		message = message.replace("<TIMEOUT>", Robotframework.secsToTimestr(timeout));
-		long maxtime = System.currentTimeMillis() + (long) (timeout * 1000);
+		PollStrategy strategy = getPollStrategy(keyword);
+		long start = System.nanoTime();
+		long deadline = start + (long) (timeout * 1000000000.0);
+		// Stay below the script timeout, which is the library timeout
+		long maxBrowserWait = (long) (browserManagement.getTimeout() * 800000000.0);
+		boolean browserReportedFinished = false;
+		int polls = 0;
+		RuntimeException lastError = null;
 		for (;;) {
+			polls++;
 			try {
 				if (function.isFinished()) {
-					break;
+					recordWait(keyword, System.nanoTime() - start, polls, false);
+					return;
 				}
-			} catch (Throwable t) {
+				lastError = null;
+			} catch (RuntimeException e) {
+				lastError = e;
 			}
-			if (System.currentTimeMillis() > maxtime) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				recordWait(keyword, System.nanoTime() - start, polls, true);
+				if (lastError != null) {
+					logging.debug(String.format("Last error while waiting: %s", lastError));
+				}
 				throw new Selenium2LibraryNonFatalException(message);
 			}
+			// If the browser reported the condition as finished, but the
+			// check above did not confirm it, poll once before asking the
+			// browser again.
+			if (condition != null && !browserReportedFinished) {
+				Boolean result = waitInBrowser(condition, Math.min(remaining, maxBrowserWait));
+				if (result != null) {
+					browserReportedFinished = result;
+					continue;
+				}
+				condition = null;
+			}
+			browserReportedFinished = false;
 			try {
-				Thread.sleep(200);
+				TimeUnit.NANOSECONDS.sleep(Math.min(strategy.getInterval(polls - 1), remaining));
 			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new Selenium2LibraryNonFatalException(String.format("Interrupted while waiting: %s", message));
 			}
 		}
 	}
 
+	protected BrowserCondition textCondition(String text, boolean expected) {
+		if (!eventDrivenWaits) {
+			return null;
+		}
+		return new BrowserCondition("text", text, expected);
+	}
+
+	protected BrowserCondition locatorCondition(String kind, String locator, boolean expected) {
+		if (!eventDrivenWaits) {
+			return null;
+		}
+		List<String> query;
+		try {
+			query = ElementFinder.getScriptQuery(locator);
+		} catch (Selenium2LibraryNonFatalException e) {
+			// Let the polled check report the invalid locator
+			return null;
+		}
+		if (query == null) {
+			return null;
+		}
+		return new BrowserCondition(kind, query, expected);
+	}
+
+	/**
+	 * Waits inside the browser until the condition seems to be finished, but
+	 * at most the given time.
+	 * 
+	 * @return Whether the browser reported the condition as finished, or null
+	 *         if waiting inside the browser is not possible.
+	 */
+	protected Boolean waitInBrowser(BrowserCondition condition, long nanos) {
+		try {
+			Object result = ((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeAsyncScript(
+					WAIT_IN_BROWSER_SCRIPT, condition.kind, condition.argument, condition.expected,
+					Math.max(1, nanos / 1000000));
+			if (result instanceof Boolean) {
+				return (Boolean) result;
+			}
+			logging.debug("Waiting inside the browser is not supported. Falling back to polling.");
+		} catch (WebDriverException e) {
+			logging.debug(String.format("Waiting inside the browser failed. Falling back to polling: %s",
+					e.getMessage()));
+		}
+		return null;
+	}
+
+	/**
+	 * Marks the current page before an action, which may navigate, if enabled
+	 * by `Enable Page Ready Wait`.
+	 */
+	protected void markPageIfReadyWaitEnabled() {
+		if (!pageReadyWait) {
+			return;
+		}
+		try {
+			((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeScript(MARK_PAGE_SCRIPT);
+		} catch (WebDriverException e) {
+			logging.debug(String.format("Marking the page before the action failed: %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Waits until the page is ready, if enabled by `Enable Page Ready Wait`.
+	 * Only logs a warning, if the page does not get ready in time. Does not
+	 * run the run-on-failure keyword.
+	 */
+	protected void waitForPageReadyIfEnabled() {
+		if (!pageReadyWait) {
+			return;
+		}
+		try {
+			waitForPageReady(pageReadyTimeout, null);
+		} catch (Selenium2LibraryNonFatalException e) {
+			logging.warn(e.getMessage());
+			// Do not let a page, which was never left, look unready forever
+			markPageIfReadyWaitEnabled();
+		}
+	}
+
+	protected WaitCondition parseWaitCondition(String condition) {
+		int index = condition.indexOf(':');
+		if (index < 0) {
+			throw new Selenium2LibraryNonFatalException(String.format("Invalid condition: %s", condition));
+		}
+		String kind = condition.substring(0, index).trim().toLowerCase();
+		String argument = condition.substring(index + 1);
+		boolean expected = true;
+		if (kind.startsWith("not ")) {
+			expected = false;
+			kind = kind.substring(4).trim();
+		}
+
+		Object scriptArgument = argument;
+		if (kind.equals("element") || kind.equals("visible")) {
+			argument = argument.trim();
+			scriptArgument = ElementFinder.getScriptQuery(argument);
+		} else if (!kind.equals("text") && !kind.equals("title") && !kind.equals("javascript")) {
+			throw new Selenium2LibraryNonFatalException(String.format("Unknown condition kind '%s' in: %s", kind,
+					condition));
+		}
+		return new WaitCondition(kind, argument, expected, scriptArgument);
+	}
+
+	protected boolean areConditionsMet(List<WaitCondition> waitConditions, List<List<Object>> scriptConditions,
+			boolean all) {
+		if (scriptConditions.size() != 0) {
+			Object result = ((JavascriptExecutor) browserManagement.getCurrentWebDriver()).executeScript(
+					CHECK_CONDITIONS_SCRIPT, scriptConditions);
+			List<?> results = result instanceof List<?> ? (List<?>) result : null;
+			int index = 0;
+			for (WaitCondition waitCondition : waitConditions) {
+				if (waitCondition.scriptArgument != null) {
+					Object value = results != null && index < results.size() ? results.get(index) : null;
+					index++;
+					boolean met = value != null ? Boolean.valueOf(waitCondition.expected).equals(value)
+							: isConditionMet(waitCondition);
+					if (met != all) {
+						return met;
+					}
+				}
+			}
+		}
+		for (WaitCondition waitCondition : waitConditions) {
+			if (waitCondition.scriptArgument == null) {
+				boolean met = isConditionMet(waitCondition);
+				if (met != all) {
+					return met;
+				}
+			}
+		}
+		return all;
+	}
+
+	protected boolean isConditionMet(WaitCondition waitCondition) {
+		try {
+			boolean value;
+			if (waitCondition.kind.equals("element")) {
+				value = element.isElementPresent(waitCondition.argument);
+			} else if (waitCondition.kind.equals("visible")) {
+				value = element.isVisible(waitCondition.argument);
+			} else if (waitCondition.kind.equals("text")) {
+				value = element.isTextPresent(waitCondition.argument);
+			} else {
+				return false;
+			}
+			return value == waitCondition.expected;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	protected PollStrategy getPollStrategy(String keyword) {
+		if (keyword != null) {
+			PollStrategy keywordPollStrategy = keywordPollStrategies.get(normalizeKeyword(keyword));
+			if (keywordPollStrategy != null) {
+				return keywordPollStrategy;
+			}
+		}
+		return pollStrategy;
+	}
+
+	protected void recordWait(String keyword, long nanos, int polls, boolean failed) {
+		if (keyword == null) {
+			return;
+		}
+		LatencyHistogram histogram = waitStatistics.get(keyword);
+		if (histogram == null) {
+			histogram = new LatencyHistogram();
+			LatencyHistogram existing = waitStatistics.putIfAbsent(keyword, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		histogram.record(nanos, polls, failed);
+	}
+
+	protected static String normalizeKeyword(String keyword) {
+		return keyword.toLowerCase().replace(" ", "").replace("_", "");
+	}
+
+	/**
+	 * Whether the name is the name of a wait keyword of this class. The
+	 * normalized name of a keyword equals its lower case method name.
+	 */
+	protected static boolean isWaitKeyword(String keyword) {
+		String name = normalizeKeyword(keyword);
+		if (!name.startsWith("wait")) {
+			return false;
+		}
+		for (Method method : Waiting.class.getMethods()) {
+			if (method.getName().toLowerCase().equals(name) && method.isAnnotationPresent(RobotKeyword.class)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	protected static class BrowserCondition {
+
+		protected final String kind;
+
+		protected final Object argument;
+
+		protected final boolean expected;
+
+		protected BrowserCondition(String kind, Object argument, boolean expected) {
+			this.kind = kind;
+			this.argument = argument;
+			this.expected = expected;
+		}
+	}
+
+	protected static class WaitCondition {
+
+		protected final String kind;
+
+		protected final String argument;
+
+		protected final boolean expected;
+
+		/**
+		 * The argument of the condition inside the browser, or null if the
+		 * condition has to be checked by the library
+		 */
+		protected final Object scriptArgument;
+
+		protected WaitCondition(String kind, String argument, boolean expected, Object scriptArgument) {
+			this.kind = kind;
+			this.argument = argument;
+			this.expected = expected;
+			this.scriptArgument = scriptArgument;
+		}
+	}
+
 	protected static interface WaitUntilFunction {
 
 		boolean isFinished();
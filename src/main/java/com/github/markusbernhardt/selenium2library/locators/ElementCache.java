@@ -0,0 +1,183 @@
+package com.github.markusbernhardt.selenium2library.locators;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.internal.WrapsElement;
+
+import com.github.markusbernhardt.selenium2library.locators.ElementFinder.LocatorKey;
+import com.github.markusbernhardt.selenium2library.utils.LruCache;
+
+/**
+ * Remembers the first element found by a locator in the current page of one
+ * web driver.<br>
+ * <br>
+ * The cached elements are proxies. When the underlying element has become
+ * stale, the proxy locates it again and repeats the failed call once. The
+ * cache has to be cleared whenever the web driver navigates or switches
+ * window or frame.
+ */
+public class ElementCache {
+
+	/**
+	 * Cached elements by locator and tag
+	 */
+	protected final LruCache<LocatorKey, CachedElement> cachedElements;
+
+	/**
+	 * Time to live of a cached element in nanoseconds. 0 means forever.
+	 */
+	protected volatile long timeToLive;
+
+	/**
+	 * Number of cached elements, which had become stale and were located again
+	 */
+	protected final AtomicLong relocations = new AtomicLong();
+
+	/**
+	 * Number of cached elements, which had expired
+	 */
+	protected final AtomicLong expirations = new AtomicLong();
+
+	public ElementCache(int maxSize, double timeToLiveSecs) {
+		this.cachedElements = new LruCache<LocatorKey, CachedElement>(maxSize);
+		setTimeToLive(timeToLiveSecs);
+	}
+
+	public void setMaxSize(int maxSize) {
+		cachedElements.setMaxSize(maxSize);
+	}
+
+	public void setTimeToLive(double timeToLiveSecs) {
+		this.timeToLive = (long) (timeToLiveSecs * 1000000000.0);
+	}
+
+	/**
+	 * Returns the first element found by the locator, or null if there is no
+	 * such element. Only found elements are cached.
+	 */
+	public WebElement find(WebDriver webDriver, String locator, String tag) {
+		LocatorKey key = new LocatorKey(locator, tag);
+		CachedElement cachedElement = cachedElements.get(key);
+		if (cachedElement != null) {
+			if (timeToLive == 0 || System.nanoTime() - cachedElement.created < timeToLive) {
+				return cachedElement.proxy;
+			}
+			expirations.incrementAndGet();
+			cachedElements.remove(key);
+		}
+
+		List<WebElement> elements = ElementFinder.find(webDriver, locator, tag);
+		if (elements.size() == 0) {
+			return null;
+		}
+		cachedElement = new CachedElement(webDriver, key, elements.get(0));
+		cachedElements.put(key, cachedElement);
+		return cachedElement.proxy;
+	}
+
+	public void clear() {
+		cachedElements.clear();
+	}
+
+	public int size() {
+		return cachedElements.size();
+	}
+
+	public long getHits() {
+		return cachedElements.getHits();
+	}
+
+	public long getMisses() {
+		return cachedElements.getMisses();
+	}
+
+	public long getRelocations() {
+		return relocations.get();
+	}
+
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	protected class CachedElement implements InvocationHandler {
+
+		protected final WebDriver webDriver;
+
+		protected final LocatorKey key;
+
+		protected final long created = System.nanoTime();
+
+		protected final WebElement proxy;
+
+		protected volatile WebElement element;
+
+		protected CachedElement(WebDriver webDriver, LocatorKey key, WebElement element) {
+			this.webDriver = webDriver;
+			this.key = key;
+			this.element = element;
+
+			Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+			for (Class<?> clazz = element.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+				for (Class<?> iface : clazz.getInterfaces()) {
+					if (Modifier.isPublic(iface.getModifiers())) {
+						interfaces.add(iface);
+					}
+				}
+			}
+			interfaces.add(WebElement.class);
+			interfaces.add(WrapsElement.class);
+			this.proxy = (WebElement) Proxy.newProxyInstance(element.getClass().getClassLoader(),
+					interfaces.toArray(new Class<?>[interfaces.size()]), this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.equals("getWrappedElement") && method.getParameterTypes().length == 0) {
+				return element;
+			}
+			if (name.equals("equals") && method.getParameterTypes().length == 1) {
+				Object other = args[0];
+				if (other instanceof WrapsElement) {
+					other = ((WrapsElement) other).getWrappedElement();
+				}
+				return element.equals(other);
+			}
+
+			try {
+				return method.invoke(element, args);
+			} catch (InvocationTargetException e) {
+				if (!(e.getCause() instanceof StaleElementReferenceException)) {
+					throw e.getCause();
+				}
+			}
+
+			// The element has become stale. Locate it again and retry once.
+			cachedElements.remove(key);
+			List<WebElement> elements = ElementFinder.find(webDriver, key.locator, key.tag);
+			if (elements.size() == 0) {
+				throw new StaleElementReferenceException(String.format(
+						"Element locator '%s' did not match any elements anymore.", key.locator));
+			}
+			relocations.incrementAndGet();
+			element = elements.get(0);
+			cachedElements.put(key, this);
+			try {
+				return method.invoke(element, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
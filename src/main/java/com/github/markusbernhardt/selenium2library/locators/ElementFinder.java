@@ -1,26 +1,161 @@
 package com.github.markusbernhardt.selenium2library.locators;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.openqa.selenium.By;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.SearchContext;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
-import org.python.util.PythonInterpreter;
 
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
 import com.github.markusbernhardt.selenium2library.keywords.Element;
+import com.github.markusbernhardt.selenium2library.utils.LruCache;
 import com.github.markusbernhardt.selenium2library.utils.Python;
+import com.github.markusbernhardt.selenium2library.utils.RobotLogger;
 
 public class ElementFinder {
 
-	protected final static Hashtable<String, CustomStrategy> registeredLocationStrategies = new Hashtable<String, CustomStrategy>();
+	protected final static Map<String, CustomStrategy> registeredLocationStrategies = new ConcurrentHashMap<String, CustomStrategy>();
+
+	/**
+	 * Number of times a custom location strategy was installed into a page
+	 */
+	protected final static AtomicLong locationStrategyInstallations = new AtomicLong();
+
+	/**
+	 * Separates the steps of a chained locator
+	 */
+	public final static String CHAIN_DELIMITER = " >> ";
+
+	/**
+	 * Default maximum number of compiled locators kept in the cache
+	 */
+	public final static int DEFAULT_LOCATOR_CACHE_SIZE = 4096;
+
+	/**
+	 * Compiled locators by (locator, tag)
+	 */
+	protected final static LruCache<LocatorKey, CompiledLocator> compiledLocators = new LruCache<LocatorKey, CompiledLocator>(
+			DEFAULT_LOCATOR_CACHE_SIZE);
+
+	/**
+	 * Base URL of the current page by web driver
+	 */
+	protected final static Map<WebDriver, String> baseUrls = Collections
+			.synchronizedMap(new WeakHashMap<WebDriver, String>());
+
+	/**
+	 * Key attribute XPath templates by tag and constraints
+	 */
+	protected final static Map<String, KeyAttrsXPath> keyAttrsXPaths = new ConcurrentHashMap<String, KeyAttrsXPath>();
+
+	/**
+	 * Resolves the queries in <code>arguments[0]</code>, each a pair of type
+	 * and query, and returns a list of matching elements per query. The
+	 * result is null for every query that failed.
+	 */
+	protected final static String FIND_IN_BULK_SCRIPT = "var queries = arguments[0], results = [];\n"
+			+ "for (var i = 0; i < queries.length; i++) {\n"
+			+ "  var type = queries[i][0], query = queries[i][1], nodes = [];\n"
+			+ "  try {\n"
+			+ "    if (type == 'xpath') {\n"
+			+ "      var snapshot = document.evaluate(query, document, null, 7, null);\n"
+			+ "      for (var j = 0; j < snapshot.snapshotLength; j++) {\n"
+			+ "        if (snapshot.snapshotItem(j).nodeType == 1) { nodes.push(snapshot.snapshotItem(j)); }\n"
+			+ "      }\n"
+			+ "    } else {\n"
+			+ "      var list = type == 'css' ? document.querySelectorAll(query)\n"
+			+ "          : document.getElementsByTagName(query);\n"
+			+ "      for (var j = 0; j < list.length; j++) { nodes.push(list[j]); }\n"
+			+ "    }\n"
+			+ "  } catch (e) {\n"
+			+ "    nodes = null;\n"
+			+ "  }\n"
+			+ "  results.push(nodes);\n"
+			+ "}\n"
+			+ "return results;";
+
+	/**
+	 * Filter by tag and constraints inside the browser if possible
+	 */
+	protected static volatile boolean browserSideFiltering = true;
+
+	/**
+	 * Filters the element(s) in <code>nodes</code> by the tag in
+	 * <code>arguments[0]</code> and the attribute constraints in
+	 * <code>arguments[1]</code>.
+	 */
+	protected final static String FILTER_ELEMENTS_SCRIPT = "var tag = arguments[0], constraints = arguments[1];\n"
+			+ "var result = [];\n"
+			+ "if (nodes == null) { return result; }\n"
+			+ "if (nodes.nodeType) { nodes = [nodes]; }\n"
+			+ "for (var i = 0; i < nodes.length; i++) {\n"
+			+ "  var node = nodes[i], matches = true;\n"
+			+ "  if (node.nodeType != 1 || (tag && node.tagName.toLowerCase() != tag)) { continue; }\n"
+			+ "  for (var name in constraints) {\n"
+			+ "    var value = node[name];\n"
+			+ "    if (value === undefined || value === null) { value = node.getAttribute(name); }\n"
+			+ "    if (value === null || String(value) != constraints[name]) { matches = false; break; }\n"
+			+ "  }\n"
+			+ "  if (matches) { result.push(node); }\n"
+			+ "}\n"
+			+ "return result;";
+
+	protected final static String FILTER_XPATH_SCRIPT = "if (!document.evaluate) { return null; }\n"
+			+ "var snapshot = document.evaluate(arguments[2], document, null, 7, null), nodes = [];\n"
+			+ "for (var j = 0; j < snapshot.snapshotLength; j++) { nodes.push(snapshot.snapshotItem(j)); }\n"
+			+ FILTER_ELEMENTS_SCRIPT;
+
+	protected final static String FILTER_CSS_SCRIPT = "if (!document.querySelectorAll) { return null; }\n"
+			+ "var nodes = document.querySelectorAll(arguments[2]);\n" + FILTER_ELEMENTS_SCRIPT;
+
+	protected final static String FILTER_TAG_SCRIPT = "var nodes = document.getElementsByTagName(arguments[2]);\n"
+			+ FILTER_ELEMENTS_SCRIPT;
+
+	protected final static String FILTER_JQUERY_SCRIPT = "var nodes = jQuery(arguments[2]).get();\n"
+			+ FILTER_ELEMENTS_SCRIPT;
+
+	/**
+	 * Resolves the steps of a chained locator in <code>arguments[2]</code>,
+	 * each a pair of type and query, starting from the document. Every step
+	 * searches inside the elements found by the previous step.
+	 */
+	protected final static String FILTER_CHAIN_SCRIPT = "var steps = arguments[2], nodes = [document];\n"
+			+ "for (var s = 0; s < steps.length; s++) {\n"
+			+ "  var type = steps[s][0], query = steps[s][1], found = [];\n"
+			+ "  for (var c = 0; c < nodes.length; c++) {\n"
+			+ "    var list = [];\n"
+			+ "    if (type == 'xpath') {\n"
+			+ "      if (!document.evaluate) { return null; }\n"
+			+ "      var snapshot = document.evaluate(query, nodes[c], null, 7, null);\n"
+			+ "      for (var j = 0; j < snapshot.snapshotLength; j++) { list.push(snapshot.snapshotItem(j)); }\n"
+			+ "    } else if (type == 'css') {\n"
+			+ "      if (!nodes[c].querySelectorAll) { return null; }\n"
+			+ "      list = nodes[c].querySelectorAll(query);\n"
+			+ "    } else {\n"
+			+ "      list = nodes[c].getElementsByTagName(query);\n"
+			+ "    }\n"
+			+ "    for (var j = 0; j < list.length; j++) {\n"
+			+ "      if (list[j].nodeType == 1 && found.indexOf(list[j]) < 0) { found.push(list[j]); }\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "  nodes = found;\n"
+			+ "}\n"
+			+ FILTER_ELEMENTS_SCRIPT;
 
 	protected enum KeyAttrs {
 		DEFAULT("@id,@name"), A("@id,@name,@href,normalize-space(descendant-or-self::text())"), IMG(
@@ -41,6 +176,9 @@ public class ElementFinder {
 	protected interface Strategy {
 		List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates);
 
+		By createBy(String criteria);
+
+		ScriptQuery createScriptQuery(String criteria);
 	};
 
 	protected enum StrategyEnum implements Strategy {
@@ -58,62 +196,144 @@ public class ElementFinder {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				List<WebElement> elements = webDriver.findElements(By.id(findByCoordinates.criteria));
-				elements.addAll(webDriver.findElements(By.name(findByCoordinates.criteria)));
-				return filterElements(elements, findByCoordinates);
+				return findAndFilter(webDriver, findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.xpath(createXPath(criteria));
+			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.XPATH, FILTER_XPATH_SCRIPT, createXPath(criteria));
+			}
+
+			/**
+			 * Matches id and name in one query. The result is in document order
+			 * and contains every element only once.
+			 */
+			protected String createXPath(String criteria) {
+				String xpathCriteria = Element.escapeXpathValue(criteria);
+				return String.format(".//*[@id=%s or @name=%s]", xpathCriteria, xpathCriteria);
 			}
 		},
 		ID {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				return filterElements(webDriver.findElements(By.id(findByCoordinates.criteria)), findByCoordinates);
+				return findAndFilter(webDriver, findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.id(criteria);
+			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.XPATH, FILTER_XPATH_SCRIPT, String.format(".//*[@id=%s]",
+						Element.escapeXpathValue(criteria)));
 			}
 		},
 		NAME {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				return filterElements(webDriver.findElements(By.name(findByCoordinates.criteria)), findByCoordinates);
+				return findAndFilter(webDriver, findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.name(criteria);
+			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.XPATH, FILTER_XPATH_SCRIPT, String.format(".//*[@name=%s]",
+						Element.escapeXpathValue(criteria)));
 			}
 		},
 		XPATH {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				return filterElements(webDriver.findElements(By.xpath(findByCoordinates.criteria)), findByCoordinates);
+				return findAndFilter(webDriver, findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.xpath(criteria);
+			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.XPATH, FILTER_XPATH_SCRIPT, criteria);
 			}
 		},
 		DOM {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
+				List<WebElement> elements = findAndFilterInBrowser(webDriver, findByCoordinates);
+				if (elements != null) {
+					return elements;
+				}
 				Object result = ((JavascriptExecutor) webDriver).executeScript(String.format("return %s;",
 						findByCoordinates.criteria));
 				return filterElements(toList(result), findByCoordinates);
 			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.SCRIPT, String.format("var nodes = %s;\n%s", criteria,
+						FILTER_ELEMENTS_SCRIPT), null);
+			}
 		},
 		LINK {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				return filterElements(webDriver.findElements(By.linkText(findByCoordinates.criteria)),
-						findByCoordinates);
+				return filterElements(webDriver.findElements(findByCoordinates.by), findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.linkText(criteria);
 			}
 		},
 		CSS {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				return filterElements(webDriver.findElements(By.cssSelector(findByCoordinates.criteria)),
-						findByCoordinates);
+				return findAndFilter(webDriver, findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.cssSelector(criteria);
+			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.CSS, FILTER_CSS_SCRIPT, criteria);
 			}
 		},
 		TAG {
 
 			@Override
 			public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-				return filterElements(webDriver.findElements(By.tagName(findByCoordinates.criteria)), findByCoordinates);
+				return findAndFilter(webDriver, findByCoordinates);
+			}
+
+			@Override
+			public By createBy(String criteria) {
+				return By.tagName(criteria);
+			}
+
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.TAG, FILTER_TAG_SCRIPT, criteria);
 			}
 		},
 		JQUERY {
@@ -124,6 +344,11 @@ public class ElementFinder {
 				return findByJQuerySizzle(webDriver, findByCoordinates);
 			}
 
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.SCRIPT, FILTER_JQUERY_SCRIPT, criteria);
+			}
+
 		},
 		SIZZLE {
 
@@ -133,11 +358,29 @@ public class ElementFinder {
 				return findByJQuerySizzle(webDriver, findByCoordinates);
 			}
 
+			@Override
+			public ScriptQuery createScriptQuery(String criteria) {
+				return new ScriptQuery(ScriptQuery.SCRIPT, FILTER_JQUERY_SCRIPT, criteria);
+			}
+
 		};
 
+		@Override
+		public By createBy(String criteria) {
+			return null;
+		}
+
+		@Override
+		public ScriptQuery createScriptQuery(String criteria) {
+			return null;
+		}
 	}
 
 	protected static List<WebElement> findByJQuerySizzle(WebDriver webDriver, FindByCoordinates findByCoordinates) {
+		List<WebElement> elements = findAndFilterInBrowser(webDriver, findByCoordinates);
+		if (elements != null) {
+			return elements;
+		}
 		String js = String.format("return jQuery('%s').get();", findByCoordinates.criteria.replace("'", "\\'"));
 
 		Object o = ((JavascriptExecutor) webDriver).executeScript(js);
@@ -145,6 +388,41 @@ public class ElementFinder {
 		return filterElements(list, findByCoordinates);
 	}
 
+	protected static List<WebElement> findAndFilter(WebDriver webDriver, FindByCoordinates findByCoordinates) {
+		List<WebElement> elements = findAndFilterInBrowser(webDriver, findByCoordinates);
+		if (elements != null) {
+			return elements;
+		}
+		return filterElements(webDriver.findElements(findByCoordinates.by), findByCoordinates);
+	}
+
+	/**
+	 * Finds the elements and filters them by tag and constraints with a single
+	 * script execution. Returns null, if the filtering cannot be done inside
+	 * the browser and has to fall back to filterElements.
+	 */
+	protected static List<WebElement> findAndFilterInBrowser(WebDriver webDriver, FindByCoordinates findByCoordinates) {
+		if (findByCoordinates.tag == null || findByCoordinates.scriptQuery == null || !browserSideFiltering
+				|| !(webDriver instanceof JavascriptExecutor)) {
+			return null;
+		}
+
+		try {
+			Object result = ((JavascriptExecutor) webDriver).executeScript(findByCoordinates.scriptQuery.script,
+					findByCoordinates.tag, findByCoordinates.constraints, findByCoordinates.scriptQuery.argument);
+			if (result == null) {
+				return null;
+			}
+			return toList(result);
+		} catch (UnsupportedOperationException e) {
+			// JavaScript is not enabled for this driver
+			return null;
+		} catch (WebDriverException e) {
+			// Let the driver report the problem
+			return null;
+		}
+	}
+
 	protected static List<WebElement> filterElements(List<WebElement> elements, FindByCoordinates findByCoordinates) {
 		if (findByCoordinates.tag == null) {
 			return elements;
@@ -176,66 +454,95 @@ public class ElementFinder {
 	}
 
 	protected static List<WebElement> findByKeyAttrs(WebDriver webDriver, FindByCoordinates findByCoordinates) {
-		KeyAttrs keyAttrs = KeyAttrs.DEFAULT;
-		if (findByCoordinates.tag != null) {
-			try {
-				keyAttrs = KeyAttrs.valueOf(findByCoordinates.tag.trim().toUpperCase());
-			} catch (IllegalArgumentException e) {
-				// No special keyAttrs available for this tag
-			}
-		}
-		String xpathCriteria = Element.escapeXpathValue(findByCoordinates.criteria);
-		String xpathTag = findByCoordinates.tag;
-		if (findByCoordinates.tag == null) {
-			xpathTag = "*";
-		}
-		List<String> xpathConstraints = new ArrayList<String>();
-		if (findByCoordinates.constraints != null) {
-			for (Entry<String, String> entry : findByCoordinates.constraints.entrySet()) {
-				xpathConstraints.add(String.format("@%s='%s'", entry.getKey(), entry.getValue()));
-			}
-		}
-		List<String> xpathSearchers = new ArrayList<String>();
-		for (String attr : keyAttrs.getKeyAttrs()) {
-			xpathSearchers.add(String.format("%s=%s", attr, xpathCriteria));
+		KeyAttrsXPath keyAttrsXPath = getKeyAttrsXPath(findByCoordinates.tag, findByCoordinates.constraints);
+		String xpathUrl = null;
+		if (keyAttrsXPath.urlAttrs.length > 0) {
+			xpathUrl = Element.escapeXpathValue(getBaseUrl(webDriver) + "/" + findByCoordinates.criteria);
 		}
-		xpathSearchers.addAll(getAttrsWithUrl(webDriver, keyAttrs, findByCoordinates.criteria));
-		String xpath = String.format("//%s[%s(%s)]", xpathTag, Python.join(" and ", xpathConstraints)
-				+ (xpathConstraints.size() > 0 ? " and " : ""), Python.join(" or ", xpathSearchers));
+		String xpath = keyAttrsXPath.build(Element.escapeXpathValue(findByCoordinates.criteria), xpathUrl);
 
 		return webDriver.findElements(By.xpath(xpath));
 	}
 
-	protected static List<String> getAttrsWithUrl(WebDriver webDriver, KeyAttrs keyAttrs, String criteria) {
-		List<String> attrs = new ArrayList<String>();
-		String url = null;
-		String xpathUrl = null;
-		String[] srcHref = { "@src", "@href" };
-		for (String attr : srcHref) {
-			for (String keyAttr : keyAttrs.getKeyAttrs()) {
-				if (attr.equals(keyAttr)) {
-					if (url == null || xpathUrl == null) {
-						url = getBaseUrl(webDriver) + "/" + criteria;
-						xpathUrl = Element.escapeXpathValue(url);
-					}
-					attrs.add(String.format("%s=%s", attr, xpathUrl));
-				}
-			}
+	protected static KeyAttrsXPath getKeyAttrsXPath(String tag, Map<String, String> constraints) {
+		String key = tag == null ? "*" : tag + constraints;
+		KeyAttrsXPath keyAttrsXPath = keyAttrsXPaths.get(key);
+		if (keyAttrsXPath == null) {
+			keyAttrsXPath = new KeyAttrsXPath(tag, constraints);
+			keyAttrsXPaths.put(key, keyAttrsXPath);
 		}
-		return attrs;
+		return keyAttrsXPath;
 	}
 
+	/**
+	 * Returns the base URL of the current page. It is cached until the page
+	 * caches or the base URL are invalidated by a keyword that may navigate.
+	 */
 	protected static String getBaseUrl(WebDriver webDriver) {
-		String url = webDriver.getCurrentUrl();
-		int lastIndex = url.lastIndexOf('/');
-		if (lastIndex != -1) {
-			url = url.substring(0, lastIndex);
+		String url = baseUrls.get(webDriver);
+		if (url == null) {
+			url = webDriver.getCurrentUrl();
+			int lastIndex = url.lastIndexOf('/');
+			if (lastIndex != -1) {
+				url = url.substring(0, lastIndex);
+			}
+			baseUrls.put(webDriver, url);
 		}
 		return url;
 	}
 
+	/**
+	 * Drops everything cached for the page currently loaded in the web driver.
+	 * Has to be called whenever the web driver navigates or switches window or
+	 * frame.
+	 */
+	public static void invalidatePageCaches(WebDriver webDriver) {
+		invalidateBaseUrl(webDriver);
+	}
+
+	/**
+	 * Drops the cached base URL of the web driver. Cheaper than invalidating
+	 * all page caches, for clicks and scripts that may or may not navigate.
+	 */
+	public static void invalidateBaseUrl(WebDriver webDriver) {
+		if (webDriver != null) {
+			baseUrls.remove(webDriver);
+		}
+	}
+
 	public static void addLocationStrategy(String strategyName, String functionDefinition, String delimiter) {
-		registeredLocationStrategies.put(strategyName.toUpperCase(), new CustomStrategy(functionDefinition, delimiter));
+		registeredLocationStrategies.put(strategyName.toUpperCase(), new CustomStrategy(strategyName,
+				functionDefinition, delimiter));
+		// Locators compiled before may resolve to a different strategy now
+		compiledLocators.clear();
+	}
+
+	public static long getLocationStrategyInstallations() {
+		return locationStrategyInstallations.get();
+	}
+
+	public static boolean isBrowserSideFiltering() {
+		return browserSideFiltering;
+	}
+
+	public static void setBrowserSideFiltering(boolean browserSideFiltering) {
+		ElementFinder.browserSideFiltering = browserSideFiltering;
+	}
+
+	public static long getLocatorCacheHits() {
+		return compiledLocators.getHits();
+	}
+
+	public static long getLocatorCacheMisses() {
+		return compiledLocators.getMisses();
+	}
+
+	public static int getLocatorCacheSize() {
+		return compiledLocators.size();
+	}
+
+	public static void setLocatorCacheMaxSize(int maxSize) {
+		compiledLocators.setMaxSize(maxSize);
 	}
 
 	public static List<WebElement> find(WebDriver webDriver, String locator) {
@@ -250,28 +557,119 @@ public class ElementFinder {
 			throw new Selenium2LibraryNonFatalException("ElementFinder.find: locator is null.");
 		}
 
-		FindByCoordinates findByCoordinates = new FindByCoordinates();
-		Strategy strategy = parseLocator(findByCoordinates, locator);
-		parseTag(findByCoordinates, strategy, tag);
-		return strategy.findBy(webDriver, findByCoordinates);
+		CompiledLocator compiledLocator = compileLocator(locator, tag);
+		return compiledLocator.strategy.findBy(webDriver, compiledLocator.findByCoordinates);
 	}
 
-	protected static ThreadLocal<PythonInterpreter> loggingPythonInterpreter = new ThreadLocal<PythonInterpreter>() {
+	/**
+	 * Finds the elements of many locators at once. All locators using the
+	 * default, identifier, id, name, xpath, css or tag strategy are resolved
+	 * with a single script execution. All other locators are resolved one by
+	 * one.
+	 * 
+	 * @return The matching elements by locator, in the order of the given
+	 *         locators.
+	 */
+	public static Map<String, List<WebElement>> findInBulk(WebDriver webDriver, List<String> locators) {
+		if (webDriver == null) {
+			throw new Selenium2LibraryNonFatalException("ElementFinder.findInBulk: webDriver is null.");
+		}
 
-		@Override
-		protected PythonInterpreter initialValue() {
-			PythonInterpreter pythonInterpreter = new PythonInterpreter();
-			pythonInterpreter.exec("from robot.libraries.BuiltIn import BuiltIn; from robot.api import logger;");
-			return pythonInterpreter;
+		List<String> bulkLocators = new ArrayList<String>();
+		List<List<String>> bulkQueries = new ArrayList<List<String>>();
+		for (String locator : locators) {
+			if (locator == null) {
+				throw new Selenium2LibraryNonFatalException("ElementFinder.findInBulk: locator is null.");
+			}
+			List<String> query = getBulkQuery(compileLocator(locator, null));
+			if (query != null) {
+				bulkLocators.add(locator);
+				bulkQueries.add(query);
+			}
 		}
-	};
+
+		Map<String, List<WebElement>> elementsByLocator = new LinkedHashMap<String, List<WebElement>>();
+		if (bulkQueries.size() > 0 && browserSideFiltering && webDriver instanceof JavascriptExecutor) {
+			try {
+				Object result = ((JavascriptExecutor) webDriver).executeScript(FIND_IN_BULK_SCRIPT, bulkQueries);
+				if (result instanceof List<?>) {
+					List<?> results = (List<?>) result;
+					for (int i = 0; i < bulkLocators.size() && i < results.size(); i++) {
+						if (results.get(i) != null) {
+							elementsByLocator.put(bulkLocators.get(i), toList(results.get(i)));
+						}
+					}
+				}
+			} catch (UnsupportedOperationException e) {
+				// JavaScript is not enabled for this driver
+			} catch (WebDriverException e) {
+				// Resolve the locators one by one
+			}
+		}
+
+		Map<String, List<WebElement>> result = new LinkedHashMap<String, List<WebElement>>();
+		for (String locator : locators) {
+			List<WebElement> elements = elementsByLocator.get(locator);
+			if (elements == null) {
+				elements = find(webDriver, locator);
+			}
+			result.put(locator, elements);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the query of the locator as a pair of type (xpath, css or tag)
+	 * and query, which can be resolved by a script in the browser, or null if
+	 * the locator cannot be resolved this way.
+	 */
+	public static List<String> getScriptQuery(String locator) {
+		return getBulkQuery(compileLocator(locator, null));
+	}
+
+	protected static List<String> getBulkQuery(CompiledLocator compiledLocator) {
+		FindByCoordinates findByCoordinates = compiledLocator.findByCoordinates;
+		String type = null;
+		String query = null;
+		if (compiledLocator.strategy == StrategyEnum.DEFAULT) {
+			type = ScriptQuery.XPATH;
+			query = getKeyAttrsXPath(null, null).build(Element.escapeXpathValue(findByCoordinates.criteria), null);
+		} else if (findByCoordinates.scriptQuery != null
+				&& !ScriptQuery.SCRIPT.equals(findByCoordinates.scriptQuery.type)) {
+			type = findByCoordinates.scriptQuery.type;
+			query = findByCoordinates.scriptQuery.argument;
+		}
+		if (type == null) {
+			return null;
+		}
+		List<String> bulkQuery = new ArrayList<String>();
+		bulkQuery.add(type);
+		bulkQuery.add(query);
+		return bulkQuery;
+	}
+
+	protected static CompiledLocator compileLocator(String locator, String tag) {
+		LocatorKey key = new LocatorKey(locator, tag);
+		CompiledLocator compiledLocator = compiledLocators.get(key);
+		if (compiledLocator == null) {
+			compiledLocator = parseLocator(locator, tag);
+			compiledLocators.put(key, compiledLocator);
+		}
+		return compiledLocator;
+	}
 
 	protected static void warn(String msg) {
-		loggingPythonInterpreter.get().exec(
-				String.format("logger.warn('%s');", msg.replace("'", "\\'").replace("\n", "\\n")));
+		RobotLogger.write(msg, "WARN", false);
 	}
 
-	protected static Strategy parseLocator(FindByCoordinates findByCoordinates, String locator) {
+	protected static CompiledLocator parseLocator(String locator, String tag) {
+		if (locator.contains(CHAIN_DELIMITER)) {
+			List<String> stepLocators = splitChainedLocator(locator);
+			if (stepLocators.size() > 1) {
+				return parseChainedLocator(locator, stepLocators, tag);
+			}
+		}
+
 		String prefix = null;
 		String criteria = locator;
 		if (!locator.startsWith("//")) {
@@ -294,16 +692,86 @@ public class ElementFinder {
 				}
 			}
 		}
-		findByCoordinates.criteria = criteria;
-		return strategy;
+		if (strategy == StrategyEnum.DEFAULT && criteria.startsWith("//")) {
+			strategy = StrategyEnum.XPATH;
+		}
+
+		Map<String, String> constraints = null;
+		if (tag != null) {
+			constraints = new TreeMap<String, String>();
+			tag = parseTag(tag, constraints);
+			constraints = Collections.unmodifiableMap(constraints);
+		}
+		return new CompiledLocator(strategy, new FindByCoordinates(criteria, tag, constraints,
+				strategy.createBy(criteria), strategy.createScriptQuery(criteria)));
+	}
+
+	/**
+	 * Splits the locator at every delimiter, which is followed by a step
+	 * starting with the prefix of a location strategy. Other occurrences of
+	 * the delimiter, e.g. inside an XPath or CSS expression, are kept.
+	 */
+	protected static List<String> splitChainedLocator(String locator) {
+		List<String> stepLocators = new ArrayList<String>();
+		int start = 0;
+		int index = locator.indexOf(CHAIN_DELIMITER);
+		while (index != -1) {
+			int next = index + CHAIN_DELIMITER.length();
+			if (startsWithStrategyPrefix(locator.substring(next))) {
+				stepLocators.add(locator.substring(start, index));
+				start = next;
+			}
+			index = locator.indexOf(CHAIN_DELIMITER, next);
+		}
+		stepLocators.add(locator.substring(start));
+		return stepLocators;
+	}
+
+	protected static boolean startsWithStrategyPrefix(String locator) {
+		String[] locatorParts = locator.split("=", 2);
+		if (locatorParts.length != 2) {
+			return false;
+		}
+		String prefix = locatorParts[0].trim().toUpperCase();
+		if (registeredLocationStrategies.containsKey(prefix)) {
+			return true;
+		}
+		try {
+			StrategyEnum.valueOf(prefix);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
 	}
 
-	protected static void parseTag(FindByCoordinates findByCoordinates, Strategy strategy, String tag) {
-		if (tag == null) {
-			return;
+	protected static CompiledLocator parseChainedLocator(String locator, List<String> stepLocators, String tag) {
+		CompiledLocator[] steps = new CompiledLocator[stepLocators.size()];
+		for (int i = 0; i < steps.length; i++) {
+			String stepLocator = stepLocators.get(i).trim();
+			if (stepLocator.length() == 0) {
+				throw new Selenium2LibraryNonFatalException(String.format(
+						"Chained locator '%s' contains an empty step.", locator));
+			}
+			steps[i] = compileLocator(stepLocator, null);
+			if (i > 0 && (steps[i].strategy instanceof CustomStrategy
+					|| (steps[i].findByCoordinates.by == null && steps[i].strategy != StrategyEnum.DEFAULT))) {
+				throw new Selenium2LibraryNonFatalException(String.format(
+						"Chained locator '%s' cannot search inside elements with step '%s'.", locator, stepLocator));
+			}
+		}
+
+		Map<String, String> constraints = null;
+		if (tag != null) {
+			constraints = new TreeMap<String, String>();
+			tag = parseTag(tag, constraints);
+			constraints = Collections.unmodifiableMap(constraints);
 		}
+		return new CompiledLocator(new ChainedStrategy(steps), new FindByCoordinates(locator, tag, constraints, null,
+				null));
+	}
+
+	protected static String parseTag(String tag, Map<String, String> constraints) {
 		tag = tag.toLowerCase();
-		Map<String, String> constraints = new TreeMap<String, String>();
 		if (tag.equals("link")) {
 			tag = "a";
 		} else if (tag.equals("image")) {
@@ -325,8 +793,7 @@ public class ElementFinder {
 			tag = "input";
 			constraints.put("type", "file");
 		}
-		findByCoordinates.tag = tag;
-		findByCoordinates.constraints = constraints;
+		return tag;
 	}
 
 	@SuppressWarnings("unchecked")
@@ -344,44 +811,280 @@ public class ElementFinder {
 
 	protected static class FindByCoordinates {
 
-		String criteria;
-		String tag;
-		Map<String, String> constraints;
+		final String criteria;
+		final String tag;
+		final Map<String, String> constraints;
+		final By by;
+		final ScriptQuery scriptQuery;
+
+		FindByCoordinates(String criteria, String tag, Map<String, String> constraints, By by,
+				ScriptQuery scriptQuery) {
+			this.criteria = criteria;
+			this.tag = tag;
+			this.constraints = constraints;
+			this.by = by;
+			this.scriptQuery = scriptQuery;
+		}
+	}
+
+	protected static class KeyAttrsXPath {
+
+		final String prefix;
+		final String[] keyAttrs;
+		final String[] urlAttrs;
+
+		KeyAttrsXPath(String tag, Map<String, String> constraints) {
+			KeyAttrs keyAttrs = KeyAttrs.DEFAULT;
+			if (tag != null) {
+				try {
+					keyAttrs = KeyAttrs.valueOf(tag.trim().toUpperCase());
+				} catch (IllegalArgumentException e) {
+					// No special keyAttrs available for this tag
+				}
+			}
+			String xpathTag = tag;
+			if (tag == null) {
+				xpathTag = "*";
+			}
+			List<String> xpathConstraints = new ArrayList<String>();
+			if (constraints != null) {
+				for (Entry<String, String> entry : constraints.entrySet()) {
+					xpathConstraints.add(String.format("@%s='%s'", entry.getKey(), entry.getValue()));
+				}
+			}
+			this.prefix = String.format("//%s[%s(", xpathTag, Python.join(" and ", xpathConstraints)
+					+ (xpathConstraints.size() > 0 ? " and " : ""));
+			this.keyAttrs = keyAttrs.getKeyAttrs();
+
+			List<String> urlAttrs = new ArrayList<String>();
+			String[] srcHref = { "@src", "@href" };
+			for (String attr : srcHref) {
+				for (String keyAttr : this.keyAttrs) {
+					if (attr.equals(keyAttr)) {
+						urlAttrs.add(attr);
+					}
+				}
+			}
+			this.urlAttrs = urlAttrs.toArray(new String[urlAttrs.size()]);
+		}
+
+		String build(String xpathCriteria, String xpathUrl) {
+			StringBuilder xpath = new StringBuilder(prefix);
+			for (int i = 0; i < keyAttrs.length; i++) {
+				if (i > 0) {
+					xpath.append(" or ");
+				}
+				xpath.append(keyAttrs[i]).append('=').append(xpathCriteria);
+			}
+			for (String urlAttr : urlAttrs) {
+				xpath.append(" or ").append(urlAttr).append('=').append(xpathUrl);
+			}
+			return xpath.append(")]").toString();
+		}
+	}
+
+	protected static class ScriptQuery {
+
+		static final String XPATH = "xpath";
+		static final String CSS = "css";
+		static final String TAG = "tag";
+		static final String SCRIPT = "script";
+
+		final String type;
+		final String script;
+		final String argument;
+
+		ScriptQuery(String type, String script, String argument) {
+			this.type = type;
+			this.script = script;
+			this.argument = argument;
+		}
+	}
+
+	protected static class CompiledLocator {
+
+		final Strategy strategy;
+		final FindByCoordinates findByCoordinates;
+
+		CompiledLocator(Strategy strategy, FindByCoordinates findByCoordinates) {
+			this.strategy = strategy;
+			this.findByCoordinates = findByCoordinates;
+		}
+	}
+
+	protected static class LocatorKey {
+
+		final String locator;
+		final String tag;
+
+		LocatorKey(String locator, String tag) {
+			this.locator = locator;
+			this.tag = tag;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * locator.hashCode() + (tag == null ? 0 : tag.hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof LocatorKey)) {
+				return false;
+			}
+			LocatorKey other = (LocatorKey) obj;
+			return locator.equals(other.locator) && (tag == null ? other.tag == null : tag.equals(other.tag));
+		}
+	}
+
+	/**
+	 * Resolves the steps of a chained locator like
+	 * <code>css=#grid &gt;&gt; xpath=.//tr[3]</code>. Every step searches
+	 * inside the elements found by the previous step. If possible, all steps
+	 * are resolved with a single script execution.
+	 */
+	protected static class ChainedStrategy implements Strategy {
+
+		protected final CompiledLocator[] steps;
+
+		protected final List<List<String>> stepQueries;
+
+		public ChainedStrategy(CompiledLocator[] steps) {
+			this.steps = steps;
+
+			List<List<String>> stepQueries = new ArrayList<List<String>>();
+			for (CompiledLocator step : steps) {
+				List<String> stepQuery = getBulkQuery(step);
+				if (stepQuery == null) {
+					stepQueries = null;
+					break;
+				}
+				if (step.strategy == StrategyEnum.DEFAULT) {
+					// Search relative to the elements of the previous step
+					stepQuery.set(1, "." + stepQuery.get(1));
+				}
+				stepQueries.add(stepQuery);
+			}
+			this.stepQueries = stepQueries;
+		}
+
+		@Override
+		public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
+			if (stepQueries != null && browserSideFiltering && webDriver instanceof JavascriptExecutor) {
+				try {
+					Object result = ((JavascriptExecutor) webDriver).executeScript(FILTER_CHAIN_SCRIPT,
+							findByCoordinates.tag, findByCoordinates.constraints, stepQueries);
+					if (result != null) {
+						return toList(result);
+					}
+				} catch (UnsupportedOperationException e) {
+					// JavaScript is not enabled for this driver
+				} catch (WebDriverException e) {
+					// Let the driver report the problem
+				}
+			}
+
+			List<WebElement> elements = steps[0].strategy.findBy(webDriver, steps[0].findByCoordinates);
+			for (int i = 1; i < steps.length && elements.size() > 0; i++) {
+				By by = steps[i].findByCoordinates.by;
+				if (steps[i].strategy == StrategyEnum.DEFAULT) {
+					by = By.xpath("."
+							+ getKeyAttrsXPath(null, null).build(
+									Element.escapeXpathValue(steps[i].findByCoordinates.criteria), null));
+				}
+				Set<WebElement> found = new LinkedHashSet<WebElement>();
+				for (SearchContext searchContext : elements) {
+					found.addAll(searchContext.findElements(by));
+				}
+				elements = new ArrayList<WebElement>(found);
+			}
+			return filterElements(elements, findByCoordinates);
+		}
+
+		@Override
+		public By createBy(String criteria) {
+			return null;
+		}
+
+		@Override
+		public ScriptQuery createScriptQuery(String criteria) {
+			return null;
+		}
 	}
 
+	/**
+	 * A custom location strategy is installed once per document as a named
+	 * function of the window and then invoked by name. The function is
+	 * installed again, whenever the invocation does not find it anymore
+	 * because the page has changed.
+	 */
 	protected static class CustomStrategy implements Strategy {
 
+		protected final static String FUNCTION_MISSING = "selenium2library:function-missing";
+
+		protected final static String INVOKE_SCRIPT = "var f = window[arguments[0]];\n"
+				+ "if (typeof f != 'function') { return '" + FUNCTION_MISSING + "'; }\n"
+				+ "return f.apply(window, arguments[1]);";
+
 		protected String functionDefinition;
 
 		protected String delimiter;
 
-		public CustomStrategy(String functionDefinition, String delimiter) {
+		protected final String functionName;
+
+		protected final String installScript;
+
+		protected final AtomicLong installations = new AtomicLong();
+
+		public CustomStrategy(String strategyName, String functionDefinition, String delimiter) {
 			this.functionDefinition = functionDefinition;
 			this.delimiter = delimiter;
+			this.functionName = String.format("__selenium2library_strategy_%s_%x", strategyName,
+					functionDefinition.hashCode());
+			this.installScript = "window[arguments[0]] = function() {\n" + functionDefinition + "\n};\n"
+					+ "return window[arguments[0]].apply(window, arguments[1]);";
+		}
+
+		@Override
+		public List<WebElement> findBy(WebDriver webDriver, FindByCoordinates findByCoordinates) {
+			return filterElements(webDriver.findElements(findByCoordinates.by), findByCoordinates);
 		}
 
 		@Override
-		public List<WebElement> findBy(final WebDriver webDriver, final FindByCoordinates findByCoordinates) {
-			return filterElements(webDriver.findElements(new By() {
+		public By createBy(String criteria) {
+			final List<String> arguments;
+			if (delimiter == null) {
+				arguments = Collections.singletonList(criteria);
+			} else {
+				arguments = Arrays.asList(criteria.split(delimiter));
+			}
+			return new By() {
 
 				@Override
 				public List<WebElement> findElements(SearchContext context) {
-					Object[] arguments = null;
-					if (delimiter == null) {
-						arguments = new Object[1];
-						arguments[0] = findByCoordinates.criteria;
-					} else {
-						String[] splittedCriteria = findByCoordinates.criteria.split(delimiter);
-						arguments = new Object[splittedCriteria.length];
-						for (int i = 0; i < splittedCriteria.length; i++) {
-							arguments[i] = splittedCriteria[i];
-						}
-					}
-					Object o = ((JavascriptExecutor) webDriver).executeScript(functionDefinition, arguments);
-					return toList(o);
+					return toList(invoke((JavascriptExecutor) context, arguments));
 				}
 
-			}), findByCoordinates);
+			};
+		}
+
+		@Override
+		public ScriptQuery createScriptQuery(String criteria) {
+			return null;
+		}
+
+		protected Object invoke(JavascriptExecutor javascriptExecutor, List<String> arguments) {
+			Object result = javascriptExecutor.executeScript(INVOKE_SCRIPT, functionName, arguments);
+			if (FUNCTION_MISSING.equals(result)) {
+				installations.incrementAndGet();
+				locationStrategyInstallations.incrementAndGet();
+				result = javascriptExecutor.executeScript(installScript, functionName, arguments);
+			}
+			return result;
+		}
+
+		public long getInstallations() {
+			return installations.get();
 		}
 	}
 }
@@ -41,6 +41,14 @@ public class TableElementFinder {
 		return searchInLocators(webDriver, locators, null);
 	}
 
+	public static List<WebElement> findAll(WebDriver webDriver, String tableLocator) {
+		List<WebElement> tables = new ArrayList<WebElement>();
+		for (String locator : parseTableLocator(tableLocator, "default")) {
+			tables.addAll(ElementFinder.find(webDriver, locator));
+		}
+		return tables;
+	}
+
 	public static WebElement findByContent(WebDriver webDriver, String tableLocator, String content) {
 		List<String> locators = parseTableLocator(tableLocator, "content");
 		return searchInLocators(webDriver, locators, content);
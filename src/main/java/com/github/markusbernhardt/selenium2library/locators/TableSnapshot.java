@@ -0,0 +1,385 @@
+package com.github.markusbernhardt.selenium2library.locators;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+/**
+ * The texts of all cells of a table, fetched with a single script call.<br>
+ * <br>
+ * All rows of the table including the rows of nested tables are taken in
+ * document order. For every row the section (thead, tbody or tfoot), the
+ * position among its siblings and the texts of its th and td cells are kept.
+ * The texts are taken from innerText, or textContent if not supported, with
+ * whitespace collapsed.<br>
+ * <br>
+ * Lookups by row and column position use indexes, which are built on the
+ * first lookup.
+ */
+public class TableSnapshot {
+
+	/**
+	 * Collects the rows of the table in <code>arguments[0]</code> from
+	 * <code>arguments[1]</code> up to at most <code>arguments[2]</code> rows,
+	 * all if negative. Every row is a list of section, position, whether it is
+	 * a direct row of the table, whether it is inside a tfoot at any depth, a
+	 * string of h and d for th and td cells and the cell texts.
+	 */
+	protected final static String ROWS_SCRIPT = "var table = arguments[0], offset = arguments[1];\n"
+			+ "var limit = arguments[2], trs = table.getElementsByTagName('tr'), rows = [];\n"
+			+ "var end = limit < 0 ? trs.length : Math.min(trs.length, offset + limit);\n"
+			+ "function text(e) {\n"
+			+ "  var t = e.innerText !== undefined ? e.innerText : e.textContent;\n"
+			+ "  return (t || '').replace(/\\u00a0/g, ' ').replace(/[ \\t\\r\\f\\v]+/g, ' ')\n"
+			+ "      .replace(/ ?\\n ?/g, '\\n').replace(/^\\s+|\\s+$/g, '');\n"
+			+ "}\n"
+			+ "for (var i = offset; i < end; i++) {\n"
+			+ "  var tr = trs[i], parent = tr.parentNode, section = parent.tagName.toLowerCase();\n"
+			+ "  var position = 1, flags = '', texts = [], footer = false;\n"
+			+ "  for (var p = parent; p && p != table; p = p.parentNode) {\n"
+			+ "    if (p.tagName.toLowerCase() == 'tfoot') { footer = true; }\n"
+			+ "  }\n"
+			+ "  if (section != 'table' && tr.sectionRowIndex >= 0) {\n"
+			+ "    position = tr.sectionRowIndex + 1;\n"
+			+ "  } else {\n"
+			+ "    for (var s = tr.previousSibling; s; s = s.previousSibling) { if (s.nodeType == 1) { position++; } }\n"
+			+ "  }\n"
+			+ "  for (var c = tr.firstChild; c; c = c.nextSibling) {\n"
+			+ "    var tag = c.nodeType == 1 ? c.tagName.toLowerCase() : '';\n"
+			+ "    if (tag == 'th' || tag == 'td') { flags += tag == 'th' ? 'h' : 'd'; texts.push(text(c)); }\n"
+			+ "  }\n"
+			+ "  rows.push([section, position,\n"
+			+ "      parent == table || parent.parentNode == table, footer, flags, texts]);\n"
+			+ "}\n";
+
+	/**
+	 * Returns the number of rows of the table and the collected rows
+	 */
+	public final static String SNAPSHOT_SCRIPT = ROWS_SCRIPT + "return [trs.length, rows];";
+
+	/**
+	 * Computes a fingerprint of the table in <code>arguments[0]</code> from
+	 * the number of rows and a hash of its text content. Returns only the
+	 * fingerprint, if it equals <code>arguments[3]</code>.
+	 */
+	protected final static String FINGERPRINT_SCRIPT = "var content = arguments[0].textContent || '', hash = 0;\n"
+			+ "for (var h = 0; h < content.length; h++) { hash = (hash * 31 + content.charCodeAt(h)) | 0; }\n"
+			+ "var fingerprint = arguments[0].getElementsByTagName('tr').length + ':' + hash;\n"
+			+ "if (fingerprint === arguments[3]) { return [fingerprint]; }\n";
+
+	/**
+	 * Returns the fingerprint of the table, and the number of rows and all
+	 * rows, if the fingerprint changed
+	 */
+	protected final static String CHANGED_SNAPSHOT_SCRIPT = FINGERPRINT_SCRIPT + ROWS_SCRIPT
+			+ "return [fingerprint, trs.length, rows];";
+
+	/**
+	 * The table element
+	 */
+	protected final WebElement table;
+
+	/**
+	 * The fingerprint of the table, when the snapshot was taken, or null
+	 */
+	protected final String fingerprint;
+
+	protected final List<Row> rows;
+
+	/**
+	 * Number of cells by text by column position, built on demand
+	 */
+	protected final Map<Integer, Map<String, Integer>> columnIndexes = new HashMap<Integer, Map<String, Integer>>();
+
+	/**
+	 * Rows by position, built on demand
+	 */
+	protected Map<Integer, List<Row>> rowsByPosition;
+
+	protected TableSnapshot(WebElement table, String fingerprint, List<Row> rows) {
+		this.table = table;
+		this.fingerprint = fingerprint;
+		this.rows = rows;
+	}
+
+	/**
+	 * Fetches the texts of all cells of the table.
+	 */
+	public static TableSnapshot take(WebDriver webDriver, WebElement table) {
+		List<Row> rows = new ArrayList<Row>();
+		fetchRows(webDriver, table, 0, -1, rows);
+		return new TableSnapshot(table, null, rows);
+	}
+
+	/**
+	 * Fetches the texts of all cells of the table, unless the fingerprint of
+	 * the table still equals the one of the previous snapshot. Both is done
+	 * in a single script call.
+	 * 
+	 * @return The previous snapshot, if the table did not change, or a new
+	 *         one.
+	 */
+	public static TableSnapshot takeIfChanged(WebDriver webDriver, WebElement table, TableSnapshot previous) {
+		String previousFingerprint = previous != null && previous.table.equals(table) ? previous.fingerprint : null;
+		List<?> result = (List<?>) ((JavascriptExecutor) webDriver).executeScript(CHANGED_SNAPSHOT_SCRIPT, table, 0,
+				-1, previousFingerprint);
+		String fingerprint = (String) result.get(0);
+		if (result.size() == 1) {
+			return previous;
+		}
+		List<Row> rows = new ArrayList<Row>();
+		parseRows((List<?>) result.get(2), rows);
+		return new TableSnapshot(table, fingerprint, rows);
+	}
+
+	public WebElement getTable() {
+		return table;
+	}
+
+	/**
+	 * Fetches up to <b>limit</b> rows starting at <b>offset</b>, all if limit
+	 * is negative, and adds them to <b>rows</b>.
+	 *
+	 * @return The total number of rows of the table.
+	 */
+	public static int fetchRows(WebDriver webDriver, WebElement table, int offset, int limit, List<Row> rows) {
+		List<?> result = (List<?>) ((JavascriptExecutor) webDriver).executeScript(SNAPSHOT_SCRIPT, table, offset,
+				limit);
+		parseRows((List<?>) result.get(1), rows);
+		return ((Number) result.get(0)).intValue();
+	}
+
+	protected static void parseRows(List<?> values, List<Row> rows) {
+		for (Object row : values) {
+			List<?> cells = (List<?>) row;
+			List<String> texts = new ArrayList<String>();
+			for (Object text : (List<?>) cells.get(5)) {
+				texts.add(text != null ? text.toString() : "");
+			}
+			rows.add(new Row((String) cells.get(0), ((Number) cells.get(1)).intValue(),
+					Boolean.TRUE.equals(cells.get(2)), Boolean.TRUE.equals(cells.get(3)), (String) cells.get(4),
+					texts));
+		}
+	}
+
+	public List<Row> getRows() {
+		return rows;
+	}
+
+	/**
+	 * Returns the cell at the coordinates starting from 1, or null if there is
+	 * none. The direct rows of the thead, tbody and tfoot sections are counted
+	 * in this order. In every row the th cells are counted before the td
+	 * cells.
+	 */
+	public String getCell(int row, int column) {
+		int rowIndex = row - 1;
+		int columnIndex = column - 1;
+		if (rowIndex < 0 || columnIndex < 0) {
+			return null;
+		}
+		for (String section : new String[] { "thead", "tbody", "tfoot" }) {
+			for (Row candidate : rows) {
+				if (!candidate.direct || !section.equals(candidate.section)) {
+					continue;
+				}
+				if (rowIndex-- > 0) {
+					continue;
+				}
+				for (char flag : new char[] { 'h', 'd' }) {
+					for (int i = 0; i < candidate.texts.size(); i++) {
+						if (candidate.flags.charAt(i) == flag && columnIndex-- == 0) {
+							return candidate.texts.get(i);
+						}
+					}
+				}
+				return null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether the text of the whole table contains the text. Rows are
+	 * separated by newlines and cells by spaces.
+	 */
+	public boolean contains(String text) {
+		StringBuilder sb = new StringBuilder();
+		for (Row row : rows) {
+			if (sb.length() != 0) {
+				sb.append('\n');
+			}
+			sb.append(row.getText());
+		}
+		return sb.indexOf(text) >= 0;
+	}
+
+	/**
+	 * Whether any th cell contains the text.
+	 */
+	public boolean headerContains(String text) {
+		for (Row row : rows) {
+			for (int i = 0; i < row.texts.size(); i++) {
+				if (row.flags.charAt(i) == 'h' && row.texts.get(i).contains(text)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether any td cell inside a tfoot section contains the text. Like the
+	 * former <code>tfoot td</code> lookup this includes the cells of tables
+	 * nested in a tfoot and the tfoot cells of nested tables.
+	 */
+	public boolean footerContains(String text) {
+		for (Row row : rows) {
+			if (!row.footer) {
+				continue;
+			}
+			for (int i = 0; i < row.texts.size(); i++) {
+				if (row.flags.charAt(i) == 'd' && row.texts.get(i).contains(text)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether any row at the position starting from 1 in its section contains
+	 * the text.
+	 */
+	public boolean rowContains(int row, String text) {
+		List<Row> candidates = getRowsByPosition().get(row);
+		if (candidates == null) {
+			return false;
+		}
+		for (Row candidate : candidates) {
+			if (candidate.getText().contains(text)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether any cell at the position starting from 1 in its row contains
+	 * the text.
+	 */
+	public boolean columnContains(int column, String text) {
+		Map<String, Integer> columnIndex = getColumnIndex(column);
+		if (columnIndex.containsKey(text)) {
+			return true;
+		}
+		for (String cell : columnIndex.keySet()) {
+			if (cell.contains(text)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of cells by distinct text at the position in their
+	 * row. The index is built on the first call for a column.
+	 */
+	protected synchronized Map<String, Integer> getColumnIndex(int column) {
+		Map<String, Integer> columnIndex = columnIndexes.get(column);
+		if (columnIndex == null) {
+			columnIndex = new HashMap<String, Integer>();
+			for (Row row : rows) {
+				if (column > 0 && column <= row.texts.size()) {
+					String cell = row.texts.get(column - 1);
+					Integer count = columnIndex.get(cell);
+					columnIndex.put(cell, count != null ? count + 1 : 1);
+				}
+			}
+			columnIndexes.put(column, columnIndex);
+		}
+		return columnIndex;
+	}
+
+	protected synchronized Map<Integer, List<Row>> getRowsByPosition() {
+		if (rowsByPosition == null) {
+			rowsByPosition = new HashMap<Integer, List<Row>>();
+			for (Row row : rows) {
+				List<Row> candidates = rowsByPosition.get(row.position);
+				if (candidates == null) {
+					candidates = new ArrayList<Row>();
+					rowsByPosition.put(row.position, candidates);
+				}
+				candidates.add(row);
+			}
+		}
+		return rowsByPosition;
+	}
+
+	public static class Row {
+
+		/**
+		 * The tag name of the parent: thead, tbody, tfoot or table
+		 */
+		protected final String section;
+
+		/**
+		 * The position among the siblings starting from 1
+		 */
+		protected final int position;
+
+		/**
+		 * Whether the row belongs to the table itself and not to a nested one
+		 */
+		protected final boolean direct;
+
+		/**
+		 * Whether the row is inside a tfoot, of the table or a nested one
+		 */
+		protected final boolean footer;
+
+		/**
+		 * h for every th and d for every td cell
+		 */
+		protected final String flags;
+
+		protected final List<String> texts;
+
+		protected Row(String section, int position, boolean direct, boolean footer, String flags,
+				List<String> texts) {
+			this.section = section;
+			this.position = position;
+			this.direct = direct;
+			this.footer = footer;
+			this.flags = flags;
+			this.texts = texts;
+		}
+
+		public String getSection() {
+			return section;
+		}
+
+		public List<String> getTexts() {
+			return texts;
+		}
+
+		/**
+		 * The cell texts separated by spaces
+		 */
+		public String getText() {
+			StringBuilder sb = new StringBuilder();
+			for (String text : texts) {
+				if (sb.length() != 0) {
+					sb.append(' ');
+				}
+				sb.append(text);
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.github.markusbernhardt.selenium2library.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+
+/**
+ * Writes files on a background thread.<br>
+ * <br>
+ * Files to write are queued up to the capacity of the queue. When the queue
+ * is full, {@link #write(File, byte[])} blocks until the worker thread has
+ * caught up. The content of a file can also be computed on the worker
+ * thread. Pending files are written, when {@link #flush()} or
+ * {@link #shutdown()} is called, or at the latest when the JVM exits. Write
+ * errors are logged as warnings.
+ */
+public class AsyncFileWriter {
+
+	protected final BlockingQueue<PendingFile> queue;
+
+	/**
+	 * Number of queued files and files being written, guarded by itself
+	 */
+	protected final int[] pending = new int[1];
+
+	protected volatile boolean shutdown;
+
+	protected final Thread worker = new Thread("Selenium2Library file writer") {
+
+		@Override
+		public void run() {
+			for (;;) {
+				PendingFile pendingFile;
+				try {
+					pendingFile = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					writeFile(pendingFile.path, pendingFile.getBytes());
+				} catch (IOException e) {
+					RobotLogger.write(String.format("Can't write file '%s'", pendingFile.path.getAbsolutePath()),
+							"WARN", false);
+				} finally {
+					synchronized (pending) {
+						pending[0]--;
+						pending.notifyAll();
+					}
+				}
+			}
+		}
+	};
+
+	/**
+	 * Writes the pending files, when the JVM exits
+	 */
+	protected final Thread shutdownHook = new Thread("Selenium2Library file writer shutdown") {
+
+		@Override
+		public void run() {
+			try {
+				flush();
+			} catch (InterruptedException e) {
+				// The JVM is exiting anyway
+			}
+		}
+	};
+
+	public AsyncFileWriter(int capacity) {
+		queue = new ArrayBlockingQueue<PendingFile>(capacity);
+		worker.setDaemon(true);
+		worker.start();
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Queues a file to write. Blocks while the queue is full. After
+	 * {@link #shutdown()} the file is written at once.
+	 */
+	public void write(File path, byte[] bytes) throws IOException, InterruptedException {
+		write(new PendingFile(path, bytes, null));
+	}
+
+	/**
+	 * Queues a file to write, whose content is computed on the worker thread.
+	 * Blocks while the queue is full. After {@link #shutdown()} the content
+	 * is computed and the file is written at once.
+	 */
+	public void write(File path, Callable<byte[]> content) throws IOException, InterruptedException {
+		write(new PendingFile(path, null, content));
+	}
+
+	protected void write(PendingFile pendingFile) throws IOException, InterruptedException {
+		boolean queued;
+		synchronized (pending) {
+			queued = !shutdown;
+			if (queued) {
+				pending[0]++;
+			}
+		}
+		if (!queued) {
+			writeFile(pendingFile.path, pendingFile.getBytes());
+			return;
+		}
+		try {
+			queue.put(pendingFile);
+		} catch (InterruptedException e) {
+			synchronized (pending) {
+				pending[0]--;
+				pending.notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Waits until all queued files are written.
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (pending) {
+			while (pending[0] > 0) {
+				pending.wait();
+			}
+		}
+	}
+
+	/**
+	 * Writes all queued files and stops the worker thread.
+	 */
+	public void shutdown() throws InterruptedException {
+		synchronized (pending) {
+			shutdown = true;
+		}
+		flush();
+		worker.interrupt();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// The JVM is exiting already
+		}
+	}
+
+	public int getCapacity() {
+		return queue.size() + queue.remainingCapacity();
+	}
+
+	public static void writeFile(File path, byte[] bytes) throws IOException {
+		FileOutputStream fos = new FileOutputStream(path);
+		try {
+			fos.write(bytes);
+			fos.flush();
+		} finally {
+			fos.close();
+		}
+	}
+
+	protected static class PendingFile {
+
+		protected final File path;
+
+		protected final byte[] bytes;
+
+		/**
+		 * Computes the content, if no bytes are given
+		 */
+		protected final Callable<byte[]> content;
+
+		protected PendingFile(File path, byte[] bytes, Callable<byte[]> content) {
+			this.path = path;
+			this.bytes = bytes;
+			this.content = content;
+		}
+
+		protected byte[] getBytes() throws IOException {
+			if (bytes != null) {
+				return bytes;
+			}
+			try {
+				return content.call();
+			} catch (IOException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.github.markusbernhardt.selenium2library.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in a fixed set of buckets.
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Upper bounds of the buckets in milliseconds. The last bucket takes all
+	 * larger latencies.
+	 */
+	protected static final long[] BUCKET_BOUNDS = { 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+
+	protected final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+	protected final AtomicLong count = new AtomicLong();
+
+	protected final AtomicLong failures = new AtomicLong();
+
+	protected final AtomicLong polls = new AtomicLong();
+
+	protected final AtomicLong totalNanos = new AtomicLong();
+
+	/**
+	 * Records one measured latency.
+	 *
+	 * @param nanos
+	 *            The latency in nanoseconds.
+	 * @param polls
+	 *            The number of polls needed.
+	 * @param failed
+	 *            Whether the measured operation failed.
+	 */
+	public void record(long nanos, int polls, boolean failed) {
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+			bucket++;
+		}
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		this.polls.addAndGet(polls);
+		if (failed) {
+			failures.incrementAndGet();
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getPolls() {
+		return polls.get();
+	}
+
+	public String format() {
+		StringBuilder sb = new StringBuilder();
+		long count = this.count.get();
+		sb.append(String.format("%d calls, %d failures, %d polls, %.0f ms average", count, failures.get(),
+				polls.get(), count > 0 ? totalNanos.get() / 1000000.0 / count : 0.0));
+		for (int i = 0; i < buckets.length(); i++) {
+			long value = buckets.get(i);
+			if (value == 0) {
+				continue;
+			}
+			if (i < BUCKET_BOUNDS.length) {
+				sb.append(String.format("\n  <= %6d ms: %d", BUCKET_BOUNDS[i], value));
+			} else {
+				sb.append(String.format("\n   > %6d ms: %d", BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1], value));
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,99 @@
+package com.github.markusbernhardt.selenium2library.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LruCache<K, V> {
+
+	/**
+	 * The maximum number of entries kept in the cache
+	 */
+	protected volatile int maxSize;
+
+	/**
+	 * The cached entries in access order
+	 */
+	protected final LinkedHashMap<K, V> entries;
+
+	/**
+	 * Number of lookups answered from the cache
+	 */
+	protected final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Number of lookups not answered from the cache
+	 */
+	protected final AtomicLong misses = new AtomicLong();
+
+	public LruCache(int maxSize) {
+		this.maxSize = maxSize;
+		this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+				return size() > LruCache.this.maxSize;
+			}
+		};
+	}
+
+	public synchronized V get(K key) {
+		V value = entries.get(key);
+		if (value == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return value;
+	}
+
+	public synchronized void put(K key, V value) {
+		entries.put(key, value);
+	}
+
+	public synchronized V remove(K key) {
+		return entries.remove(key);
+	}
+
+	/**
+	 * Removes every entry with the value.
+	 */
+	public synchronized void removeValue(V value) {
+		entries.values().removeAll(Collections.singleton(value));
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		while (entries.size() > maxSize) {
+			entries.remove(entries.keySet().iterator().next());
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+}
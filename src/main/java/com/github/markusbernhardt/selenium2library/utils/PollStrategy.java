@@ -0,0 +1,130 @@
+package com.github.markusbernhardt.selenium2library.utils;
+
+import java.util.Random;
+
+import com.github.markusbernhardt.selenium2library.Selenium2LibraryNonFatalException;
+
+/**
+ * Decides how long to sleep between two polls of a wait.<br>
+ * <br>
+ * The first <code>fastPolls</code> polls are done after
+ * <code>initialInterval</code>. After that the interval grows by
+ * <code>factor</code> with every poll, until it reaches
+ * <code>maxInterval</code>. Every interval is randomly varied by up to
+ * <code>jitter</code> (a fraction of the interval), so parallel waits do not
+ * hit the browser in lockstep.
+ */
+public class PollStrategy {
+
+	public static final PollStrategy ADAPTIVE = new PollStrategy(0.05, 4, 1.5, 1.0, 0.1);
+
+	public static final PollStrategy FIXED = new PollStrategy(0.2, 0, 1.0, 0.2, 0);
+
+	protected static final Random random = new Random();
+
+	protected final double initialInterval;
+
+	protected final int fastPolls;
+
+	protected final double factor;
+
+	protected final double maxInterval;
+
+	protected final double jitter;
+
+	public PollStrategy(double initialInterval, int fastPolls, double factor, double maxInterval, double jitter) {
+		if (initialInterval < 0 || fastPolls < 0 || factor < 1 || maxInterval < initialInterval || jitter < 0
+				|| jitter > 1) {
+			throw new Selenium2LibraryNonFatalException(String.format(
+					"Invalid poll strategy: initial=%s, fast=%d, factor=%s, max=%s, jitter=%s", initialInterval,
+					fastPolls, factor, maxInterval, jitter));
+		}
+		this.initialInterval = initialInterval;
+		this.fastPolls = fastPolls;
+		this.factor = factor;
+		this.maxInterval = maxInterval;
+		this.jitter = jitter;
+	}
+
+	/**
+	 * Parses a poll strategy. Supported are the names <b>adaptive</b> and
+	 * <b>fixed</b>, a single time string for a fixed interval, or a comma
+	 * separated list of the settings <b>initial</b>, <b>fast</b>,
+	 * <b>factor</b>, <b>max</b> and <b>jitter</b>, like
+	 * <code>initial=50ms, fast=4, factor=1.5, max=1s, jitter=0.1</code>.
+	 * Settings not given are taken from the adaptive strategy.
+	 */
+	public static PollStrategy parse(String pollStrategy) {
+		String value = pollStrategy.trim();
+		if (value.equalsIgnoreCase("adaptive")) {
+			return ADAPTIVE;
+		}
+		if (value.equalsIgnoreCase("fixed")) {
+			return FIXED;
+		}
+		if (!value.contains("=")) {
+			double interval = Robotframework.timestrToSecs(value);
+			return new PollStrategy(interval, 0, 1.0, interval, 0);
+		}
+
+		double initialInterval = ADAPTIVE.initialInterval;
+		int fastPolls = ADAPTIVE.fastPolls;
+		double factor = ADAPTIVE.factor;
+		double maxInterval = ADAPTIVE.maxInterval;
+		double jitter = ADAPTIVE.jitter;
+		for (String setting : value.split(",")) {
+			String[] parts = setting.split("=", 2);
+			if (parts.length != 2) {
+				throw new Selenium2LibraryNonFatalException(String.format("Invalid poll strategy: %s", pollStrategy));
+			}
+			String name = parts[0].trim().toLowerCase();
+			String argument = parts[1].trim();
+			try {
+				if (name.equals("initial")) {
+					initialInterval = Robotframework.timestrToSecs(argument);
+				} else if (name.equals("fast")) {
+					fastPolls = Integer.parseInt(argument);
+				} else if (name.equals("factor")) {
+					factor = Double.parseDouble(argument);
+				} else if (name.equals("max")) {
+					maxInterval = Robotframework.timestrToSecs(argument);
+				} else if (name.equals("jitter")) {
+					jitter = Double.parseDouble(argument);
+				} else {
+					throw new Selenium2LibraryNonFatalException(String.format(
+							"Unknown poll strategy setting '%s' in: %s", name, pollStrategy));
+				}
+			} catch (NumberFormatException e) {
+				throw new Selenium2LibraryNonFatalException(String.format("Invalid poll strategy: %s", pollStrategy),
+						e);
+			}
+		}
+		return new PollStrategy(initialInterval, fastPolls, factor, Math.max(initialInterval, maxInterval), jitter);
+	}
+
+	/**
+	 * Returns the interval in nanoseconds to sleep after the given poll
+	 * (counting from 0).
+	 */
+	public long getInterval(int poll) {
+		double interval = initialInterval;
+		if (poll >= fastPolls) {
+			interval = Math.min(maxInterval, initialInterval * Math.pow(factor, poll - fastPolls + 1));
+		}
+		if (jitter > 0) {
+			double variation;
+			synchronized (random) {
+				variation = random.nextDouble() * 2.0 - 1.0;
+			}
+			interval += interval * jitter * variation;
+		}
+		return (long) (interval * 1000000000.0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("initial=%s, fast=%d, factor=%s, max=%s, jitter=%s",
+				Robotframework.secsToTimestr(initialInterval), fastPolls, factor,
+				Robotframework.secsToTimestr(maxInterval), jitter);
+	}
+}
@@ -0,0 +1,131 @@
+package com.github.markusbernhardt.selenium2library.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.python.core.Py;
+import org.python.core.PyList;
+import org.python.core.PyObject;
+import org.python.core.PyString;
+import org.python.core.PyTuple;
+import org.python.core.PyUnicode;
+import org.python.util.PythonInterpreter;
+
+/**
+ * Writes messages to the Robot Framework log.<br>
+ * <br>
+ * The messages are collected and passed as Python objects to a Python
+ * function, which is compiled only once per thread. So neither the messages
+ * have to be embedded in Python source code, nor every message costs a call
+ * from Java to Python.<br>
+ * <br>
+ * The collected messages are written, when {@link #flush()} is called, at the
+ * latest after every keyword, or when {@link #MAX_BATCH_SIZE} messages have
+ * been collected. Every thread running keywords collects its own messages and
+ * writes them itself. Messages of all other threads are collected together
+ * and written by the next thread running keywords, which flushes.
+ */
+public class RobotLogger {
+
+	/**
+	 * The number of collected messages, which are written at once
+	 */
+	public final static int MAX_BATCH_SIZE = 100;
+
+	protected final static String WRITE_MESSAGES_FUNCTION = "from robot.api import logger\n"
+			+ "def write_messages(messages):\n"
+			+ "    for msg, level, html in messages:\n"
+			+ "        logger.write(msg, level, html)\n";
+
+	/**
+	 * The collected messages of the current thread as tuples of message, level
+	 * and html flag
+	 */
+	protected static ThreadLocal<List<PyObject>> messages = new ThreadLocal<List<PyObject>>() {
+
+		@Override
+		protected List<PyObject> initialValue() {
+			return new ArrayList<PyObject>();
+		}
+	};
+
+	/**
+	 * The collected messages of threads not running keywords
+	 */
+	protected final static Queue<PyObject> backgroundMessages = new ConcurrentLinkedQueue<PyObject>();
+
+	/**
+	 * Whether the current thread runs keywords
+	 */
+	protected static ThreadLocal<Boolean> keywordThread = new ThreadLocal<Boolean>() {
+
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
+	protected static ThreadLocal<PyObject> writeMessagesFunction = new ThreadLocal<PyObject>() {
+
+		@Override
+		protected PyObject initialValue() {
+			PythonInterpreter pythonInterpreter = new PythonInterpreter();
+			pythonInterpreter.exec(WRITE_MESSAGES_FUNCTION);
+			return pythonInterpreter.get("write_messages");
+		}
+	};
+
+	/**
+	 * Marks the current thread as running keywords. Only such threads write
+	 * messages to the log.
+	 */
+	public static void markKeywordThread() {
+		keywordThread.set(true);
+	}
+
+	/**
+	 * Collects a message for the log.
+	 *
+	 * @param msg
+	 *            The message.
+	 * @param level
+	 *            The log level: TRACE, DEBUG, INFO or WARN.
+	 * @param html
+	 *            Whether the message is HTML.
+	 */
+	public static void write(String msg, String level, boolean html) {
+		PyTuple message = new PyTuple(new PyUnicode(msg != null ? msg : "None"), new PyString(level),
+				html ? Py.True : Py.False);
+		if (!keywordThread.get()) {
+			backgroundMessages.add(message);
+			return;
+		}
+		List<PyObject> batch = messages.get();
+		batch.add(message);
+		if (batch.size() >= MAX_BATCH_SIZE) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes all messages collected by the current thread and by threads not
+	 * running keywords to the log. Does nothing, if the current thread does
+	 * not run keywords.
+	 */
+	public static void flush() {
+		if (!keywordThread.get()) {
+			return;
+		}
+		List<PyObject> batch = messages.get();
+		for (PyObject message = backgroundMessages.poll(); message != null; message = backgroundMessages.poll()) {
+			batch.add(message);
+		}
+		if (batch.size() == 0) {
+			return;
+		}
+		messages.set(new ArrayList<PyObject>());
+		writeMessagesFunction.get().__call__(new PyList(batch.toArray(new PyObject[batch.size()])));
+	}
+}
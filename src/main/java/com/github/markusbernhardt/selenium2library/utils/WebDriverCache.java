@@ -1,20 +1,44 @@
 package com.github.markusbernhardt.selenium2library.utils;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Stack;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.openqa.selenium.WebDriver;
 
 import com.github.markusbernhardt.selenium2library.Selenium2LibraryFatalException;
 
+/**
+ * Keeps track of the open web drivers.<br>
+ * <br>
+ * Lookups by session id and alias are lock free, all changes are
+ * synchronized. Every thread has its own current web driver: Opening,
+ * switching and closing a browser changes the current web driver of the
+ * calling thread. Threads, which did not do any of this yet, use the web
+ * driver made current last by any thread.
+ */
 public class WebDriverCache {
 
 	/**
-	 * The currently active web driver instance
+	 * The web driver instance made current last by any thread
 	 */
-	SessionIdAliasWebDriverTuple currentSessionIdAliasWebDriverTuple;
+	volatile SessionIdAliasWebDriverTuple currentSessionIdAliasWebDriverTuple;
+
+	/**
+	 * The currently active web driver instance of each thread
+	 */
+	final ThreadLocal<SessionIdAliasWebDriverTuple> threadSessionIdAliasWebDriverTuple =
+			new ThreadLocal<SessionIdAliasWebDriverTuple>();
 
 	/**
 	 * The maximum assigned session id
@@ -24,118 +48,244 @@ public class WebDriverCache {
 	/**
 	 * Stack of currently open session ids to reuse
 	 */
-	Stack<String> openSessionIds = new Stack<String>();
+	final Stack<String> openSessionIds = new Stack<String>();
 
 	/**
 	 * Stack of already closed session ids to reuse
 	 */
-	Stack<String> closedSessionIds = new Stack<String>();
+	final Stack<String> closedSessionIds = new Stack<String>();
 
 	/**
 	 * Map session ids to webdrivers
 	 */
-	Map<String, SessionIdAliasWebDriverTuple> tupleBySessionId = new TreeMap<String, SessionIdAliasWebDriverTuple>();
+	final Map<String, SessionIdAliasWebDriverTuple> tupleBySessionId =
+			new ConcurrentSkipListMap<String, SessionIdAliasWebDriverTuple>();
 
 	/**
 	 * Map aliases to webdrivers
 	 */
-	Map<String, SessionIdAliasWebDriverTuple> tupleByAlias = new TreeMap<String, SessionIdAliasWebDriverTuple>();
+	final Map<String, SessionIdAliasWebDriverTuple> tupleByAlias =
+			new ConcurrentSkipListMap<String, SessionIdAliasWebDriverTuple>();
+
+	/**
+	 * Pool to return closed web drivers to, or null to quit them
+	 */
+	volatile WebDriverPool webDriverPool;
+
+	public WebDriverPool getWebDriverPool() {
+		return webDriverPool;
+	}
+
+	public void setWebDriverPool(WebDriverPool webDriverPool) {
+		this.webDriverPool = webDriverPool;
+	}
 
 	public String register(WebDriver webDriver, String alias) {
+		return register(webDriver, alias, null);
+	}
+
+	public synchronized String register(WebDriver webDriver, String alias, String poolKey) {
 		// create the new tuple
-		currentSessionIdAliasWebDriverTuple = new SessionIdAliasWebDriverTuple();
-		currentSessionIdAliasWebDriverTuple.alias = alias;
-		currentSessionIdAliasWebDriverTuple.webDriver = webDriver;
+		SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple = new SessionIdAliasWebDriverTuple();
+		sessionIdAliasWebDriverTuple.alias = alias;
+		sessionIdAliasWebDriverTuple.webDriver = webDriver;
+		sessionIdAliasWebDriverTuple.poolKey = poolKey;
 		if (closedSessionIds.size() == 0) {
 			// no closed id
 			maxAssignedSessionId++;
-			currentSessionIdAliasWebDriverTuple.id = Integer.toString(maxAssignedSessionId);
+			sessionIdAliasWebDriverTuple.id = Integer.toString(maxAssignedSessionId);
 		} else {
 			// reuse closed id
-			currentSessionIdAliasWebDriverTuple.id = closedSessionIds.pop();
+			sessionIdAliasWebDriverTuple.id = closedSessionIds.pop();
 		}
 
 		// store the new tuple
-		openSessionIds.push(currentSessionIdAliasWebDriverTuple.id);
-		tupleBySessionId.put(currentSessionIdAliasWebDriverTuple.id, currentSessionIdAliasWebDriverTuple);
+		openSessionIds.push(sessionIdAliasWebDriverTuple.id);
+		tupleBySessionId.put(sessionIdAliasWebDriverTuple.id, sessionIdAliasWebDriverTuple);
 		if (alias != null) {
-			tupleByAlias.put(currentSessionIdAliasWebDriverTuple.alias, currentSessionIdAliasWebDriverTuple);
+			tupleByAlias.put(sessionIdAliasWebDriverTuple.alias, sessionIdAliasWebDriverTuple);
 		}
-		return currentSessionIdAliasWebDriverTuple.id;
+		setCurrent(sessionIdAliasWebDriverTuple);
+		return sessionIdAliasWebDriverTuple.id;
 	}
 
 	public WebDriver getCurrent() {
-		if (currentSessionIdAliasWebDriverTuple != null) {
-			return currentSessionIdAliasWebDriverTuple.webDriver;
+		SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple = getCurrentTuple();
+		if (sessionIdAliasWebDriverTuple != null) {
+			return sessionIdAliasWebDriverTuple.webDriver;
 		}
 		return null;
 	}
 
 	public String getCurrentSessionId() {
-		if (currentSessionIdAliasWebDriverTuple != null) {
-			return currentSessionIdAliasWebDriverTuple.id;
+		SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple = getCurrentTuple();
+		if (sessionIdAliasWebDriverTuple != null) {
+			return sessionIdAliasWebDriverTuple.id;
 		}
 		return null;
 	}
 
 	public void close() {
-		if (currentSessionIdAliasWebDriverTuple != null) {
-			// Close the webdriver and remove it from all stores
-			currentSessionIdAliasWebDriverTuple.webDriver.quit();
-			tupleBySessionId.remove(currentSessionIdAliasWebDriverTuple.id);
-			openSessionIds.remove(currentSessionIdAliasWebDriverTuple.id);
-			closedSessionIds.push(currentSessionIdAliasWebDriverTuple.id);
-			if (currentSessionIdAliasWebDriverTuple.alias != null) {
-				tupleByAlias.remove(currentSessionIdAliasWebDriverTuple.alias);
+		SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple;
+		synchronized (this) {
+			sessionIdAliasWebDriverTuple = getCurrentTuple();
+			if (sessionIdAliasWebDriverTuple == null) {
+				return;
+			}
+
+			// Remove the webdriver from all stores
+			tupleBySessionId.remove(sessionIdAliasWebDriverTuple.id);
+			openSessionIds.remove(sessionIdAliasWebDriverTuple.id);
+			closedSessionIds.push(sessionIdAliasWebDriverTuple.id);
+			if (sessionIdAliasWebDriverTuple.alias != null) {
+				tupleByAlias.remove(sessionIdAliasWebDriverTuple.alias);
 			}
 
 			// Set the last opened webdriver as current webdriver
 			if (openSessionIds.size() != 0) {
-				currentSessionIdAliasWebDriverTuple = tupleBySessionId.get(openSessionIds.pop());
+				setCurrent(tupleBySessionId.get(openSessionIds.peek()));
 			} else {
-				currentSessionIdAliasWebDriverTuple = null;
+				setCurrent(null);
 			}
 		}
+
+		// Quit outside of the lock, so other threads are not blocked
+		quit(sessionIdAliasWebDriverTuple);
 	}
 
 	public void closeAll() {
-		for (SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple : tupleBySessionId.values()) {
-			sessionIdAliasWebDriverTuple.webDriver.quit();
+		closeAll(0, null);
+	}
+
+	/**
+	 * Closes all web drivers in parallel.
+	 * 
+	 * @param timeout
+	 *            The time in seconds to wait for the web drivers to quit. 0
+	 *            means forever.
+	 * @param failures
+	 *            Optional map to collect the exceptions by session id of the
+	 *            web drivers, which failed to quit or to return to the pool
+	 * @return The session ids of the web drivers, which did not quit in time
+	 */
+	public List<String> closeAll(double timeout, Map<String, Throwable> failures) {
+		List<SessionIdAliasWebDriverTuple> sessionIdAliasWebDriverTuples;
+		synchronized (this) {
+			sessionIdAliasWebDriverTuples = new ArrayList<SessionIdAliasWebDriverTuple>(tupleBySessionId.values());
+			maxAssignedSessionId = 0;
+			setCurrent(null);
+			openSessionIds.clear();
+			closedSessionIds.clear();
+			tupleBySessionId.clear();
+			tupleByAlias.clear();
+		}
+
+		List<String> hungSessionIds = new ArrayList<String>();
+		if (sessionIdAliasWebDriverTuples.size() == 0) {
+			return hungSessionIds;
+		}
+		List<Callable<Object>> quits = new ArrayList<Callable<Object>>();
+		for (final SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple : sessionIdAliasWebDriverTuples) {
+			quits.add(new Callable<Object>() {
+
+				@Override
+				public Object call() {
+					quit(sessionIdAliasWebDriverTuple);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(quits.size(), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Selenium2Library close browser");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Object>> futures;
+			if (timeout > 0) {
+				futures = executor.invokeAll(quits, (long) (timeout * 1000.0), TimeUnit.MILLISECONDS);
+			} else {
+				futures = executor.invokeAll(quits);
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				if (futures.get(i).isCancelled()) {
+					hungSessionIds.add(sessionIdAliasWebDriverTuples.get(i).id);
+					continue;
+				}
+				try {
+					futures.get(i).get();
+				} catch (ExecutionException e) {
+					if (failures != null) {
+						failures.put(sessionIdAliasWebDriverTuples.get(i).id, e.getCause());
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
 		}
-		maxAssignedSessionId = 0;
-		currentSessionIdAliasWebDriverTuple = null;
-		openSessionIds = new Stack<String>();
-		closedSessionIds = new Stack<String>();
-		tupleBySessionId = new TreeMap<String, SessionIdAliasWebDriverTuple>();
-		tupleByAlias = new TreeMap<String, SessionIdAliasWebDriverTuple>();
+		return hungSessionIds;
 	}
 
-	public void switchBrowser(String sessionIdOrAlias) {
+	public synchronized void switchBrowser(String sessionIdOrAlias) {
 		SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple = tupleByAlias.get(sessionIdOrAlias);
-		if (sessionIdAliasWebDriverTuple != null) {
-			currentSessionIdAliasWebDriverTuple = sessionIdAliasWebDriverTuple;
-			openSessionIds.remove(currentSessionIdAliasWebDriverTuple.id);
-			openSessionIds.push(currentSessionIdAliasWebDriverTuple.id);
-			return;
+		if (sessionIdAliasWebDriverTuple == null) {
+			sessionIdAliasWebDriverTuple = tupleBySessionId.get(sessionIdOrAlias);
 		}
-
-		sessionIdAliasWebDriverTuple = tupleBySessionId.get(sessionIdOrAlias);
-		if (sessionIdAliasWebDriverTuple != null) {
-			currentSessionIdAliasWebDriverTuple = sessionIdAliasWebDriverTuple;
-			openSessionIds.remove(currentSessionIdAliasWebDriverTuple.id);
-			openSessionIds.push(currentSessionIdAliasWebDriverTuple.id);
-			return;
+		if (sessionIdAliasWebDriverTuple == null) {
+			throw new Selenium2LibraryFatalException(String.format("Non-existing index or alias '%s'",
+					sessionIdOrAlias));
 		}
-		throw new Selenium2LibraryFatalException(String.format("Non-existing index or alias '%s'", sessionIdOrAlias));
+		openSessionIds.remove(sessionIdAliasWebDriverTuple.id);
+		openSessionIds.push(sessionIdAliasWebDriverTuple.id);
+		setCurrent(sessionIdAliasWebDriverTuple);
 	}
 
 	public Collection<SessionIdAliasWebDriverTuple> getWebDrivers() {
 		return tupleBySessionId.values();
 	}
 
+	/**
+	 * Returns the web driver to the pool it was leased from, or quits it.
+	 */
+	public void quit(SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple) {
+		WebDriverPool webDriverPool = this.webDriverPool;
+		if (sessionIdAliasWebDriverTuple.poolKey != null && webDriverPool != null) {
+			webDriverPool.release(sessionIdAliasWebDriverTuple.poolKey, sessionIdAliasWebDriverTuple.webDriver);
+		} else {
+			sessionIdAliasWebDriverTuple.webDriver.quit();
+		}
+	}
+
+	protected SessionIdAliasWebDriverTuple getCurrentTuple() {
+		SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple = threadSessionIdAliasWebDriverTuple.get();
+		// Ignore the thread's web driver, if it has been closed by another
+		// thread meanwhile
+		if (sessionIdAliasWebDriverTuple != null
+				&& tupleBySessionId.get(sessionIdAliasWebDriverTuple.id) == sessionIdAliasWebDriverTuple) {
+			return sessionIdAliasWebDriverTuple;
+		}
+		return currentSessionIdAliasWebDriverTuple;
+	}
+
+	protected void setCurrent(SessionIdAliasWebDriverTuple sessionIdAliasWebDriverTuple) {
+		currentSessionIdAliasWebDriverTuple = sessionIdAliasWebDriverTuple;
+		if (sessionIdAliasWebDriverTuple != null) {
+			threadSessionIdAliasWebDriverTuple.set(sessionIdAliasWebDriverTuple);
+		} else {
+			threadSessionIdAliasWebDriverTuple.remove();
+		}
+	}
+
 	public static class SessionIdAliasWebDriverTuple {
 		public String id;
 		public String alias;
 		public WebDriver webDriver;
+		public String poolKey;
 	}
 }
@@ -0,0 +1,389 @@
+package com.github.markusbernhardt.selenium2library.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import com.github.markusbernhardt.selenium2library.locators.ElementFinder;
+
+/**
+ * Keeps started browsers ready for reuse.<br>
+ * <br>
+ * The browsers are pooled by a key made of the browser name, remote URL,
+ * desired capabilities and browser options. When a browser is leased, the
+ * pool starts browsers of the same key in the background, until
+ * <code>size</code> idle browsers are ready. Returned browsers are reset and
+ * kept for the next lease. Idle browsers are quit after
+ * <code>maxIdleTime</code>, and every idle browser is checked to be alive,
+ * before it is leased.<br>
+ * <br>
+ * Without prestarting the pool only parks returned browsers. Browsers used
+ * <code>maxReuse</code> times or older than <code>maxAge</code> are quit,
+ * when they are returned.
+ */
+public class WebDriverPool {
+
+	/**
+	 * Clears the local and session storage of the current page
+	 */
+	protected final static String CLEAR_STORAGE_SCRIPT = "try { window.localStorage.clear(); } catch (e) {}\n"
+			+ "try { window.sessionStorage.clear(); } catch (e) {}";
+
+	/**
+	 * The number of idle browsers kept per key
+	 */
+	protected volatile int size;
+
+	/**
+	 * Whether to start browsers in the background
+	 */
+	protected final boolean prestart;
+
+	/**
+	 * The time in nanoseconds, after which idle browsers are quit
+	 */
+	protected volatile long maxIdleTime;
+
+	/**
+	 * The number of leases, after which a browser is quit. 0 means unlimited.
+	 */
+	protected volatile int maxReuse;
+
+	/**
+	 * The time in nanoseconds after its start, after which a browser is quit.
+	 * 0 means unlimited.
+	 */
+	protected volatile long maxAge;
+
+	/**
+	 * Leased browsers
+	 */
+	protected final Map<WebDriver, PooledWebDriver> leasedWebDrivers =
+			new IdentityHashMap<WebDriver, PooledWebDriver>();
+
+	/**
+	 * Idle browsers by key, the most recently returned browser last
+	 */
+	protected final Map<String, LinkedList<PooledWebDriver>> pooledWebDrivers =
+			new HashMap<String, LinkedList<PooledWebDriver>>();
+
+	/**
+	 * Number of browsers being started in the background by key
+	 */
+	protected final Map<String, Integer> startingWebDrivers = new HashMap<String, Integer>();
+
+	/**
+	 * Starts the browsers and quits the expired ones in the background
+	 */
+	protected final ScheduledExecutorService executor;
+
+	/**
+	 * Quits the idle browsers, when the JVM exits
+	 */
+	protected final Thread shutdownHook = new Thread("Selenium2Library browser pool shutdown") {
+
+		@Override
+		public void run() {
+			shutdown();
+		}
+	};
+
+	protected volatile boolean shutdown;
+
+	public WebDriverPool(int size, double maxIdleTimeSecs) {
+		this(size, true, maxIdleTimeSecs, 0, 0);
+	}
+
+	public WebDriverPool(int size, boolean prestart, double maxIdleTimeSecs, int maxReuse, double maxAgeSecs) {
+		this.size = size;
+		this.prestart = prestart;
+		this.maxIdleTime = (long) (maxIdleTimeSecs * 1000000000.0);
+		this.maxReuse = maxReuse;
+		this.maxAge = (long) (maxAgeSecs * 1000000000.0);
+		this.executor = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Selenium2Library browser pool");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000L, (long) (maxIdleTimeSecs * 500.0));
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				quitExpired();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	public static String createKey(String browserName, String remoteUrl, String desiredCapabilities,
+			String browserOptions) {
+		return String.format("%s|%s|%s|%s", browserName.toLowerCase().replace(" ", ""), remoteUrl,
+				desiredCapabilities, browserOptions);
+	}
+
+	/**
+	 * Returns a healthy idle browser of the given key or starts a new one with
+	 * the factory. Afterwards the pool is refilled in the background.
+	 */
+	public WebDriver lease(String key, Callable<WebDriver> factory) throws Exception {
+		PooledWebDriver pooledWebDriver = null;
+		for (;;) {
+			synchronized (this) {
+				LinkedList<PooledWebDriver> idle = pooledWebDrivers.get(key);
+				pooledWebDriver = idle != null ? idle.pollLast() : null;
+			}
+			if (pooledWebDriver == null) {
+				break;
+			}
+			long now = System.nanoTime();
+			if (!isExpired(pooledWebDriver, now) && !isRetired(pooledWebDriver, now)
+					&& isHealthy(pooledWebDriver.webDriver)) {
+				break;
+			}
+			quitQuietly(pooledWebDriver.webDriver);
+		}
+		if (pooledWebDriver == null) {
+			pooledWebDriver = new PooledWebDriver(factory.call());
+		}
+		pooledWebDriver.uses++;
+		synchronized (this) {
+			leasedWebDrivers.put(pooledWebDriver.webDriver, pooledWebDriver);
+		}
+		if (prestart) {
+			fill(key, factory);
+		}
+		return pooledWebDriver.webDriver;
+	}
+
+	/**
+	 * Resets the browser and keeps it for the next lease. The browser is quit,
+	 * if it has been used too often or is too old, if the reset fails or if
+	 * enough browsers of the key are idle.
+	 */
+	public void release(String key, WebDriver webDriver) {
+		PooledWebDriver pooledWebDriver;
+		synchronized (this) {
+			pooledWebDriver = leasedWebDrivers.remove(webDriver);
+		}
+		if (pooledWebDriver == null) {
+			pooledWebDriver = new PooledWebDriver(webDriver);
+			pooledWebDriver.uses++;
+		}
+		if (shutdown || isRetired(pooledWebDriver, System.nanoTime())) {
+			quitQuietly(webDriver);
+			return;
+		}
+		try {
+			reset(webDriver);
+		} catch (RuntimeException e) {
+			quitQuietly(webDriver);
+			return;
+		}
+		synchronized (this) {
+			if (!shutdown) {
+				LinkedList<PooledWebDriver> idle = getIdle(key);
+				if (idle.size() < size) {
+					pooledWebDriver.idleSince = System.nanoTime();
+					idle.add(pooledWebDriver);
+					return;
+				}
+			}
+		}
+		quitQuietly(webDriver);
+	}
+
+	/**
+	 * Quits all idle browsers and stops starting new ones.
+	 */
+	public void shutdown() {
+		List<PooledWebDriver> quit = new ArrayList<PooledWebDriver>();
+		synchronized (this) {
+			shutdown = true;
+			for (LinkedList<PooledWebDriver> idle : pooledWebDrivers.values()) {
+				quit.addAll(idle);
+			}
+			pooledWebDrivers.clear();
+		}
+		executor.shutdownNow();
+		try {
+			Runtime.getRuntime().removeShutdownHook(shutdownHook);
+		} catch (IllegalStateException e) {
+			// The JVM is exiting already
+		}
+		for (PooledWebDriver pooledWebDriver : quit) {
+			quitQuietly(pooledWebDriver.webDriver);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public synchronized int getIdleCount() {
+		int count = 0;
+		for (LinkedList<PooledWebDriver> idle : pooledWebDrivers.values()) {
+			count += idle.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Closes all windows but one, deletes all cookies, clears the local and
+	 * session storage and opens about:blank.<br>
+	 * <br>
+	 * Cookies and storage can only be cleared for the page open at the time
+	 * of the reset.
+	 */
+	public static void reset(WebDriver webDriver) {
+		Iterator<String> windowHandles = webDriver.getWindowHandles().iterator();
+		String firstWindowHandle = windowHandles.next();
+		while (windowHandles.hasNext()) {
+			webDriver.switchTo().window(windowHandles.next());
+			webDriver.close();
+		}
+		webDriver.switchTo().window(firstWindowHandle);
+		webDriver.switchTo().defaultContent();
+		webDriver.manage().deleteAllCookies();
+		if (webDriver instanceof JavascriptExecutor) {
+			((JavascriptExecutor) webDriver).executeScript(CLEAR_STORAGE_SCRIPT);
+		}
+		webDriver.get("about:blank");
+		ElementFinder.invalidatePageCaches(webDriver);
+	}
+
+	protected void fill(final String key, final Callable<WebDriver> factory) {
+		int missing;
+		synchronized (this) {
+			if (shutdown) {
+				return;
+			}
+			Integer starting = startingWebDrivers.get(key);
+			int count = getIdle(key).size() + (starting != null ? starting : 0);
+			missing = size - count;
+			if (missing <= 0) {
+				return;
+			}
+			startingWebDrivers.put(key, (starting != null ? starting : 0) + missing);
+		}
+		for (int i = 0; i < missing; i++) {
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						WebDriver webDriver = null;
+						try {
+							webDriver = factory.call();
+						} catch (Exception e) {
+							// The next lease starts the browser itself
+						}
+						synchronized (WebDriverPool.this) {
+							startingWebDrivers.put(key, startingWebDrivers.get(key) - 1);
+							if (webDriver != null && !shutdown && getIdle(key).size() < size) {
+								getIdle(key).add(new PooledWebDriver(webDriver));
+								return;
+							}
+						}
+						if (webDriver != null) {
+							quitQuietly(webDriver);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// The pool has been shut down meanwhile
+				return;
+			}
+		}
+	}
+
+	protected void quitExpired() {
+		List<PooledWebDriver> quit = new ArrayList<PooledWebDriver>();
+		long now = System.nanoTime();
+		synchronized (this) {
+			for (LinkedList<PooledWebDriver> idle : pooledWebDrivers.values()) {
+				Iterator<PooledWebDriver> iterator = idle.iterator();
+				while (iterator.hasNext()) {
+					PooledWebDriver pooledWebDriver = iterator.next();
+					if (isExpired(pooledWebDriver, now)) {
+						iterator.remove();
+						quit.add(pooledWebDriver);
+					}
+				}
+			}
+		}
+		for (PooledWebDriver pooledWebDriver : quit) {
+			quitQuietly(pooledWebDriver.webDriver);
+		}
+	}
+
+	protected LinkedList<PooledWebDriver> getIdle(String key) {
+		LinkedList<PooledWebDriver> idle = pooledWebDrivers.get(key);
+		if (idle == null) {
+			idle = new LinkedList<PooledWebDriver>();
+			pooledWebDrivers.put(key, idle);
+		}
+		return idle;
+	}
+
+	protected boolean isExpired(PooledWebDriver pooledWebDriver, long now) {
+		return maxIdleTime > 0 && now - pooledWebDriver.idleSince > maxIdleTime;
+	}
+
+	protected boolean isRetired(PooledWebDriver pooledWebDriver, long now) {
+		return (maxReuse > 0 && pooledWebDriver.uses >= maxReuse)
+				|| (maxAge > 0 && now - pooledWebDriver.started > maxAge);
+	}
+
+	protected boolean isHealthy(WebDriver webDriver) {
+		try {
+			webDriver.getWindowHandles();
+			return true;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	protected static void quitQuietly(WebDriver webDriver) {
+		try {
+			webDriver.quit();
+		} catch (RuntimeException e) {
+			// The browser is gone anyway
+		}
+	}
+
+	protected static class PooledWebDriver {
+
+		protected final WebDriver webDriver;
+
+		protected final long started = System.nanoTime();
+
+		protected volatile long idleSince = started;
+
+		/**
+		 * Number of leases
+		 */
+		protected volatile int uses;
+
+		protected PooledWebDriver(WebDriver webDriver) {
+			this.webDriver = webDriver;
+		}
+	}
+}